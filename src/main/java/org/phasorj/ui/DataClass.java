@@ -1,20 +1,136 @@
 package org.phasorj.ui;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import net.imagej.Dataset;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.phasorj.ui.phasor.IntensityMask;
+import org.phasorj.ui.phasor.MedianFilter;
+import org.phasorj.ui.phasor.PhasorTransform;
+import org.phasorj.ui.phasor.SpatialBinning;
 
 public class DataClass {
     private final Dataset dataset;
-    private Dataset rawPhasor;
-    private RandomAccessibleInterval<FloatType> gData;
-    private RandomAccessibleInterval<FloatType> sData;
+    // X x Y x C x P image of the uncalibrated phasor of every plane: mean, then G, S of every
+    // harmonic along axis 2
+    private final ArrayImg<FloatType, FloatArray> rawPhasor;
+    private final int nBins;
+    private final int[] harmonics;
+    // X x Y x 2 x P image of the spatially binned G and S, allocated on first use
+    private float[] binnedPhasor;
+    // summed-area tables of every plane for binning, and the harmonic they were built at
+    private SpatialBinning[] binningTables;
+    private int binningHarmonic;
+    // buffers of the median filter, allocated on first use
+    private MedianFilter medianFilter;
+    // X x Y x 2 x P image of the calibrated G and S, allocated on first use
+    private ArrayImg<FloatType, FloatArray> calibPhasor;
+    // X x Y x 2 x P images of the final G and S, allocated when no other one is free: the one
+    // written by the computation in progress, and the one published before
+    private final List<PhasorBuffer> phasorBuffers = new ArrayList<>();
+    private PhasorBuffer outputPhasor, publishedPhasor;
+    // X x Y x 2 x P image of the phase and modulation lifetimes, allocated on first use
+    private ArrayImg<FloatType, FloatArray> lifetimes;
+    // X x Y x P image of the fraction of the first unmixing component, allocated on first use
+    private ArrayImg<FloatType, FloatArray> fractions;
+    // the parameters the calibrated phasor, the lifetimes and the published G and S were last
+    // computed with
+    private Object calibratedWith, lifetimesWith, filteredWith;
+    // pixels within the intensity thresholds, per plane
+    private final IntensityMask[] masks;
+    // the image G and S are currently read from, replaced as a whole by the computing thread
+    private volatile PhasorView phasor;
+
+    /**
+     * An image G and S are published in, and the number of readers holding it.
+     */
+    private static final class PhasorBuffer {
+        final ArrayImg<FloatType, FloatArray> img;
+        final AtomicInteger readers = new AtomicInteger();
+
+        PhasorBuffer(ArrayImg<FloatType, FloatArray> img) {
+            this.img = img;
+        }
+
+        float[] array() {
+            return img.update(null).getCurrentStorageArray();
+        }
+    }
+
+    /**
+     * A buffer and the channels of G and S in it.
+     */
+    private static final class PhasorView {
+        final PhasorBuffer buffer;
+        final int gChannel, sChannel;
+
+        PhasorView(PhasorBuffer buffer, int gChannel, int sChannel) {
+            this.buffer = buffer;
+            this.gChannel = gChannel;
+            this.sChannel = sChannel;
+        }
+    }
+
+    /**
+     * The G and S of every plane as published when they were held. The computing thread does not
+     * write into them until {@link #close()}.
+     */
+    public final class HeldPhasor implements AutoCloseable {
+        private final PhasorView view;
+        private boolean closed;
+
+        private HeldPhasor(PhasorView view) {
+            this.view = view;
+        }
+
+        public RandomAccessibleInterval<FloatType> getG(int plane) {
+            return Views.hyperSlice(planeOf(view.buffer.img, plane), 2, view.gChannel);
+        }
+
+        public RandomAccessibleInterval<FloatType> getS(int plane) {
+            return Views.hyperSlice(planeOf(view.buffer.img, plane), 2, view.sChannel);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                view.buffer.readers.decrementAndGet();
+            }
+        }
+    }
 
-    public DataClass(Dataset dataset, RandomAccessibleInterval<FloatType> gData, RandomAccessibleInterval<FloatType> sData, Dataset rawPhasor) {
+    /**
+     * @param rawPhasor X x Y x C x P image of the uncalibrated phasor of P planes, see
+     *                  {@link PhasorTransform}
+     * @param nBins     number of time bins, turns the mean intensity into the summed intensity
+     * @param harmonics the harmonics stored in {@code rawPhasor}, in channel order
+     */
+    public DataClass(Dataset dataset, ArrayImg<FloatType, FloatArray> rawPhasor, int nBins, int[] harmonics) {
+        if (rawPhasor.numDimensions() != 4 || rawPhasor.dimension(2) != PhasorTransform.channels(harmonics.length)) {
+            throw new IllegalArgumentException("Expected an X x Y x " + PhasorTransform.channels(harmonics.length)
+                    + " x P phasor image");
+        }
         this.dataset = dataset;
         this.rawPhasor = rawPhasor;
-        this.gData = gData;
-        this.sData = sData;
+        this.nBins = nBins;
+        this.harmonics = harmonics.clone();
+        this.masks = new IntensityMask[getPlaneCount()];
+        int plane = getWidth() * getHeight();
+        for (int p = 0; p < masks.length; p++) {
+            masks[p] = new IntensityMask(getRawPhasorArray(), getMeanOffset(p), plane, nBins);
+        }
+        this.phasor = new PhasorView(new PhasorBuffer(rawPhasor),
+                PhasorTransform.realChannel(0), PhasorTransform.imagChannel(0));
     }
 
     public Dataset getDataset() {
@@ -22,18 +138,391 @@ public class DataClass {
     }
 
     public RandomAccessibleInterval<FloatType> getGData() {
-        return gData;
+        return getGData(0);
     }
 
     public RandomAccessibleInterval<FloatType> getSData() {
-        return sData;
+        return getSData(0);
+    }
+
+    /**
+     * @return the G of a plane last published, see {@link #publishOutputPhasor()}; the raw G of
+     * the first harmonic before that. A later computation may write into it, read it through
+     * {@link #holdPhasor()} while entries are recomputed.
+     */
+    public RandomAccessibleInterval<FloatType> getGData(int plane) {
+        PhasorView view = phasor;
+        return Views.hyperSlice(planeOf(view.buffer.img, plane), 2, view.gChannel);
+    }
+
+    /**
+     * @return the S of a plane last published, see {@link #publishOutputPhasor()}; the raw S of
+     * the first harmonic before that. A later computation may write into it, read it through
+     * {@link #holdPhasor()} while entries are recomputed.
+     */
+    public RandomAccessibleInterval<FloatType> getSData(int plane) {
+        PhasorView view = phasor;
+        return Views.hyperSlice(planeOf(view.buffer.img, plane), 2, view.sChannel);
+    }
+
+    /**
+     * Hold the G and S last published so that no computation writes into them while they are
+     * read; close the result when done.
+     */
+    public HeldPhasor holdPhasor() {
+        while (true) {
+            PhasorView view = phasor;
+            view.buffer.readers.incrementAndGet();
+            // the computing thread checks the readers after publishing, so either it sees this
+            // reader or this reader sees the newer view and tries again
+            if (phasor == view) {
+                return new HeldPhasor(view);
+            }
+            view.buffer.readers.decrementAndGet();
+        }
+    }
+
+    private RandomAccessibleInterval<FloatType> planeOf(ArrayImg<FloatType, FloatArray> img, int plane) {
+        checkPlane(plane);
+        return Views.hyperSlice(img, 3, plane);
+    }
+
+    private void checkPlane(int plane) {
+        if (plane < 0 || plane >= getPlaneCount()) {
+            throw new IllegalArgumentException("Plane " + plane + " out of range [0, " + getPlaneCount() + ")");
+        }
+    }
+
+    /**
+     * @return the mask of pixels within the intensity thresholds of the first plane
+     */
+    public IntensityMask getMask() {
+        return getMask(0);
+    }
+
+    /**
+     * @return the mask of pixels within the intensity thresholds of a plane, indexed by
+     * {@code y * width + x}
+     */
+    public IntensityMask getMask(int plane) {
+        checkPlane(plane);
+        return masks[plane];
     }
 
-    public Dataset getRawPhasor() {
+    public ArrayImg<FloatType, FloatArray> getRawPhasor() {
         return rawPhasor;
     }
-    public void updatePhasor(RandomAccessibleInterval<FloatType> g, RandomAccessibleInterval<FloatType> s) {
-        this.gData = g;
-        this.sData = s;
+
+    public RandomAccessibleInterval<FloatType> getMean() {
+        return getMean(0);
+    }
+
+    public RandomAccessibleInterval<FloatType> getMean(int plane) {
+        return Views.hyperSlice(planeOf(rawPhasor, plane), 2, PhasorTransform.MEAN);
+    }
+
+    public RandomAccessibleInterval<FloatType> getIntensity() {
+        return getIntensity(0);
+    }
+
+    /**
+     * @return the summed intensity of a plane, a view of the mean intensity scaled by the number
+     * of time bins
+     */
+    public RandomAccessibleInterval<FloatType> getIntensity(int plane) {
+        return Converters.convert(getMean(plane), (in, out) -> out.setReal(in.getRealDouble() * nBins),
+                new FloatType());
+    }
+
+    public int getNumBins() {
+        return nBins;
+    }
+
+    public int[] getHarmonics() {
+        return harmonics.clone();
+    }
+
+    public boolean hasHarmonic(int harmonic) {
+        for (int h : harmonics) {
+            if (h == harmonic) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the position of the harmonic among the computed ones
+     * @throws IllegalArgumentException if the harmonic was not computed for this entry
+     */
+    private int harmonicIndex(int harmonic) {
+        for (int i = 0; i < harmonics.length; i++) {
+            if (harmonics[i] == harmonic) return i;
+        }
+        throw new IllegalArgumentException("Harmonic " + harmonic + " was not computed for "
+                + dataset.getName());
+    }
+
+    public RandomAccessibleInterval<FloatType> getRawG(int harmonic, int plane) {
+        return Views.hyperSlice(planeOf(rawPhasor, plane), 2, PhasorTransform.realChannel(harmonicIndex(harmonic)));
+    }
+
+    public RandomAccessibleInterval<FloatType> getRawS(int harmonic, int plane) {
+        return Views.hyperSlice(planeOf(rawPhasor, plane), 2, PhasorTransform.imagChannel(harmonicIndex(harmonic)));
+    }
+
+    /**
+     * @return the offset of channel {@code channel} of plane {@code plane} in
+     * {@link #getRawPhasorArray()}
+     */
+    private int rawOffset(int channel, int plane) {
+        checkPlane(plane);
+        return (plane * (int) rawPhasor.dimension(2) + channel) * getWidth() * getHeight();
+    }
+
+    /**
+     * @return the offset of the mean intensity of a plane in {@link #getRawPhasorArray()}
+     */
+    public int getMeanOffset(int plane) {
+        return rawOffset(PhasorTransform.MEAN, plane);
+    }
+
+    /**
+     * @return the offset of the raw G of the harmonic in a plane in {@link #getRawPhasorArray()}
+     */
+    public int getRawGOffset(int harmonic, int plane) {
+        return rawOffset(PhasorTransform.realChannel(harmonicIndex(harmonic)), plane);
+    }
+
+    /**
+     * @return the offset of the raw S of the harmonic in a plane in {@link #getRawPhasorArray()}
+     */
+    public int getRawSOffset(int harmonic, int plane) {
+        return rawOffset(PhasorTransform.imagChannel(harmonicIndex(harmonic)), plane);
+    }
+
+    /**
+     * @return the offset of the G of a plane in the calibrated and filtered phasor arrays; S
+     * follows one {@code getWidth() * getHeight()} plane later
+     */
+    public int getStageOffset(int plane) {
+        checkPlane(plane);
+        return plane * 2 * getWidth() * getHeight();
+    }
+
+    public int getWidth() {
+        return (int) rawPhasor.dimension(0);
+    }
+
+    public int getHeight() {
+        return (int) rawPhasor.dimension(1);
+    }
+
+    /**
+     * @return the number of X, Y planes, one for every position along the axes other than X, Y
+     * and lifetime
+     */
+    public int getPlaneCount() {
+        return (int) rawPhasor.dimension(3);
+    }
+
+    /**
+     * @return the backing array of the raw phasor, for every plane {@code getWidth() * getHeight()}
+     * floats per channel in channel order
+     */
+    public float[] getRawPhasorArray() {
+        return rawPhasor.update(null).getCurrentStorageArray();
+    }
+
+    /**
+     * @return the spatially binned G and S of every plane, see {@link #getStageOffset}. The
+     * buffer is allocated once and reused whenever the binning changes.
+     */
+    public float[] getBinnedPhasorArray() {
+        if (binnedPhasor == null) {
+            binnedPhasor = new float[2 * getWidth() * getHeight() * getPlaneCount()];
+        }
+        return binnedPhasor;
+    }
+
+    /**
+     * @return the binning tables of a plane at the harmonic, or null if they were not built
+     */
+    public SpatialBinning getBinningTables(int harmonic, int plane) {
+        checkPlane(plane);
+        return binningTables != null && binningHarmonic == harmonic ? binningTables[plane] : null;
+    }
+
+    /**
+     * Keep the binning tables of a plane, replacing those of every plane built at another
+     * harmonic.
+     */
+    public void setBinningTables(int harmonic, int plane, SpatialBinning tables) {
+        checkPlane(plane);
+        if (binningTables == null || binningHarmonic != harmonic) {
+            binningTables = new SpatialBinning[getPlaneCount()];
+            binningHarmonic = harmonic;
+        }
+        binningTables[plane] = tables;
+    }
+
+    /**
+     * Drop the binning tables, e.g. when binning is turned off.
+     */
+    public void clearBinningTables() {
+        binningTables = null;
+    }
+
+    /**
+     * @return the backing array of the calibrated phasor buffer, G and S of every plane, see
+     * {@link #getStageOffset}. The buffer is allocated once and reused by every recalibration.
+     */
+    public float[] getCalibratedPhasorArray() {
+        if (calibPhasor == null) {
+            calibPhasor = ArrayImgs.floats(getWidth(), getHeight(), 2, getPlaneCount());
+        }
+        return calibPhasor.update(null).getCurrentStorageArray();
+    }
+
+    /**
+     * @return the median filter of the planes of this entry, whose buffers are allocated once and
+     * reused by every filtering
+     */
+    public MedianFilter getMedianFilter() {
+        if (medianFilter == null) {
+            medianFilter = new MedianFilter(getWidth(), getHeight());
+        }
+        return medianFilter;
+    }
+
+    /**
+     * @return the backing array the final G and S of every plane are written to, see
+     * {@link #getStageOffset}. It is not read by {@link #getGData} or {@link #getSData} until
+     * {@link #publishOutputPhasor()}. The first call after a publish takes a buffer that is
+     * neither published nor held by a reader, usually the one published before.
+     */
+    public float[] getOutputPhasorArray() {
+        if (outputPhasor == null) {
+            outputPhasor = freePhasorBuffer();
+        }
+        return outputPhasor.array();
+    }
+
+    private PhasorBuffer freePhasorBuffer() {
+        for (PhasorBuffer buffer : phasorBuffers) {
+            if (buffer != publishedPhasor && buffer.readers.get() == 0) {
+                return buffer;
+            }
+        }
+        PhasorBuffer buffer = new PhasorBuffer(ArrayImgs.floats(getWidth(), getHeight(), 2, getPlaneCount()));
+        phasorBuffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * @return the backing array of the lifetime buffer, phase then modulation lifetime of every
+     * plane, see {@link #getStageOffset}. The buffer is allocated once and reused.
+     */
+    public float[] getLifetimeArray() {
+        if (lifetimes == null) {
+            lifetimes = ArrayImgs.floats(getWidth(), getHeight(), 2, getPlaneCount());
+            Arrays.fill(lifetimes.update(null).getCurrentStorageArray(), Float.NaN);
+        }
+        return lifetimes.update(null).getCurrentStorageArray();
+    }
+
+    /**
+     * @return the phase lifetime of a plane in ns, NaN before it was computed
+     */
+    public RandomAccessibleInterval<FloatType> getTauPhi(int plane) {
+        getLifetimeArray();
+        return Views.hyperSlice(planeOf(lifetimes, plane), 2, 0);
+    }
+
+    /**
+     * @return the modulation lifetime of a plane in ns, NaN before it was computed
+     */
+    public RandomAccessibleInterval<FloatType> getTauMod(int plane) {
+        getLifetimeArray();
+        return Views.hyperSlice(planeOf(lifetimes, plane), 2, 1);
+    }
+
+    /**
+     * @return the backing array of the fraction buffer, see {@link #getFractionOffset}. The
+     * buffer is allocated once and reused.
+     */
+    public float[] getFractionArray() {
+        if (fractions == null) {
+            fractions = ArrayImgs.floats(getWidth(), getHeight(), getPlaneCount());
+            Arrays.fill(fractions.update(null).getCurrentStorageArray(), Float.NaN);
+        }
+        return fractions.update(null).getCurrentStorageArray();
+    }
+
+    /**
+     * @return the offset of the fractions of a plane in {@link #getFractionArray()}
+     */
+    public int getFractionOffset(int plane) {
+        checkPlane(plane);
+        return plane * getWidth() * getHeight();
+    }
+
+    /**
+     * @return the fraction of the first unmixing component in a plane, NaN when unmixing is off
+     */
+    public RandomAccessibleInterval<FloatType> getFraction(int plane) {
+        getFractionArray();
+        checkPlane(plane);
+        return Views.hyperSlice(fractions, 2, plane);
+    }
+
+    /**
+     * @return the parameters the calibrated phasor was computed with, as set by the processor
+     */
+    public Object getCalibratedWith() {
+        return calibratedWith;
+    }
+
+    public void setCalibratedWith(Object parameters) {
+        this.calibratedWith = parameters;
+    }
+
+    /**
+     * @return the parameters the lifetimes were computed with, as set by the processor
+     */
+    public Object getLifetimesWith() {
+        return lifetimesWith;
+    }
+
+    public void setLifetimesWith(Object parameters) {
+        this.lifetimesWith = parameters;
+    }
+
+    /**
+     * @return the parameters the published G and S were filtered with, as set by the processor
+     */
+    public Object getFilteredWith() {
+        return filteredWith;
+    }
+
+    public void setFilteredWith(Object parameters) {
+        this.filteredWith = parameters;
+    }
+
+    /**
+     * @return the backing array of the G and S last published, see {@link #getStageOffset}, or
+     * null before the first {@link #publishOutputPhasor()}. Read only.
+     */
+    public float[] getPublishedPhasorArray() {
+        return publishedPhasor == null ? null : publishedPhasor.array();
+    }
+
+    /**
+     * Points G and S at the output buffer after it has been written, in one volatile write. The
+     * next computation writes into a buffer no reader holds, see {@link #holdPhasor()}.
+     */
+    public void publishOutputPhasor() {
+        getOutputPhasorArray();
+        publishedPhasor = outputPhasor;
+        outputPhasor = null;
+        phasor = new PhasorView(publishedPhasor, 0, 1);
     }
-}
\ No newline at end of file
+}
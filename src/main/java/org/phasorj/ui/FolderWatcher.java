@@ -0,0 +1,265 @@
+package org.phasorj.ui;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import javafx.application.Platform;
+import net.imagej.Dataset;
+
+/**
+ * Picks up FLIM files as they are written into a folder during a live acquisition.
+ * <p>
+ * A {@link WatchService} reports new files, which then go through two stages on their own
+ * threads: the loader opens the next file while the previous dataset is still being computed.
+ * Loaded datasets wait in a queue of at most {@code maxLoaded}; once it is full the loader stops
+ * opening files until compute catches up, so a slow computation holds back reading instead of
+ * filling memory with datasets. Only files the loader accepts are picked up, and they are only
+ * opened once their size has stopped changing; a file that stays empty is given up on. A file
+ * that fails to load is picked up again when it changes. Files already in the folder when
+ * watching starts are ignored.
+ * </p>
+ */
+public class FolderWatcher implements AutoCloseable {
+
+    /**
+     * Opens a file that arrived in the folder.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        Dataset load(Path file) throws IOException;
+    }
+
+    // time a file's size has to stay the same before it is considered complete
+    private static final long SETTLE_MILLIS = 500;
+    // settle checks a file may stay empty for, e.g. a lock file or a placeholder, before it is
+    // reported instead of waited for
+    private static final int MAX_EMPTY_CHECKS = 20;
+
+    private final Path folder;
+    private final Predicate<Path> accepts;
+    private final Loader loader;
+    private final Function<Dataset, DataClass> compute;
+    private final Consumer<DataClass> onAdded;
+    private final Consumer<Throwable> onError;
+
+    private final WatchService watchService;
+    private final ExecutorService watchThread = Executors.newSingleThreadExecutor(r -> thread(r, "PhasorJ watch"));
+    private final ExecutorService loadThread = Executors.newSingleThreadExecutor(r -> thread(r, "PhasorJ load"));
+    private final ExecutorService computeThread = Executors.newSingleThreadExecutor(r -> thread(r, "PhasorJ ingest"));
+
+    // files seen so far, each is loaded once unless loading fails
+    private final Set<Path> seen = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Path> discovered = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Dataset> loaded;
+
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Starts watching the folder.
+     *
+     * @param folder    the folder the acquisition writes into
+     * @param accepts   whether a file is one the loader can open, e.g. by its extension; run on
+     *                  the watch thread
+     * @param loader    opens a file, on the loader thread
+     * @param compute   turns a dataset into an entry, on the compute thread
+     * @param onAdded   run on the JavaFX thread for every entry, in arrival order
+     * @param onError   run on the JavaFX thread when a file cannot be loaded or computed
+     * @param maxLoaded the number of loaded datasets that may wait for compute
+     * @throws IOException if the folder cannot be watched
+     */
+    public FolderWatcher(Path folder, Predicate<Path> accepts, Loader loader, Function<Dataset, DataClass> compute,
+                         Consumer<DataClass> onAdded, Consumer<Throwable> onError,
+                         int maxLoaded) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            throw new IllegalArgumentException(folder + " is not a folder");
+        }
+        if (maxLoaded < 1) {
+            throw new IllegalArgumentException("Need room for at least one loaded dataset, got " + maxLoaded);
+        }
+        this.folder = folder;
+        this.accepts = accepts;
+        this.loader = loader;
+        this.compute = compute;
+        this.onAdded = onAdded;
+        this.onError = onError;
+        this.loaded = new ArrayBlockingQueue<>(maxLoaded);
+
+        this.watchService = folder.getFileSystem().newWatchService();
+        folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        try (DirectoryStream<Path> existing = Files.newDirectoryStream(folder)) {
+            existing.forEach(seen::add);
+        }
+
+        watchThread.execute(this::watch);
+        loadThread.execute(this::load);
+        computeThread.execute(this::compute);
+    }
+
+    private static Thread thread(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                    } else {
+                        discover(folder.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Queues files that were missed because the watch service dropped events.
+     */
+    private void rescan() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            files.forEach(this::discover);
+        } catch (IOException e) {
+            reportError(e);
+        }
+    }
+
+    private void discover(Path file) {
+        if (Files.isRegularFile(file) && !seen.contains(file) && accepts.test(file) && seen.add(file)) {
+            discovered.add(file);
+        }
+    }
+
+    private void load() {
+        try {
+            while (true) {
+                Path file = discovered.take();
+                Dataset ds;
+                try {
+                    awaitComplete(file);
+                    ds = loader.load(file);
+                } catch (IOException | RuntimeException e) {
+                    // a later change to the file picks it up again
+                    seen.remove(file);
+                    reportError(new IOException("Failed to load " + file.getFileName() + ": " + e.getMessage(), e));
+                    continue;
+                }
+                if (ds != null) {
+                    // blocks while compute is behind
+                    loaded.put(ds);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Waits until the size of the file stays the same for {@link #SETTLE_MILLIS}, so that a file
+     * the microscope is still writing is not read.
+     *
+     * @throws IOException if the file stays empty for {@link #MAX_EMPTY_CHECKS} checks
+     */
+    private static void awaitComplete(Path file) throws IOException, InterruptedException {
+        long size = Files.size(file);
+        for (int empty = 0; ; ) {
+            Thread.sleep(SETTLE_MILLIS);
+            long now = Files.size(file);
+            if (now == 0) {
+                if (++empty >= MAX_EMPTY_CHECKS) {
+                    throw new IOException("still empty after " + empty * SETTLE_MILLIS / 1000 + " s");
+                }
+            } else if (now == size) {
+                return;
+            }
+            size = now;
+        }
+    }
+
+    private void compute() {
+        try {
+            while (true) {
+                Dataset ds = loaded.take();
+                DataClass entry;
+                try {
+                    entry = compute.apply(ds);
+                } catch (RuntimeException e) {
+                    reportError(e);
+                    continue;
+                }
+                added.incrementAndGet();
+                Platform.runLater(() -> onAdded.accept(entry));
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void reportError(Throwable t) {
+        failed.incrementAndGet();
+        Platform.runLater(() -> onError.accept(t));
+    }
+
+    public Path getFolder() {
+        return folder;
+    }
+
+    /**
+     * @return the number of files found but not computed yet, including loaded datasets
+     */
+    public int getBacklog() {
+        return discovered.size() + loaded.size();
+    }
+
+    /**
+     * @return the number of files added as entries
+     */
+    public long getAddedCount() {
+        return added.get();
+    }
+
+    /**
+     * @return the number of files that could not be loaded or computed
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Stops watching. A file being computed is still added; queued files are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watchThread.shutdownNow();
+        loadThread.shutdownNow();
+        computeThread.shutdownNow();
+    }
+}
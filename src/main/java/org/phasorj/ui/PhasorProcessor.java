@@ -1,93 +1,333 @@
 package org.phasorj.ui;
 
 
+import javafx.application.Platform;
+import javafx.scene.control.Alert;
 import net.imagej.Dataset;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
+import org.phasorj.ui.controllerHelpers.ImageDisplay;
 import org.phasorj.ui.controllerHelpers.PlotPhasor;
-import org.scijava.Context;
-import org.scijava.script.DefaultScriptService;
-import org.scijava.script.ScriptInfo;
-import org.scijava.script.ScriptLanguage;
-import org.scijava.script.ScriptModule;
+import org.phasorj.ui.phasor.CalibrationReference;
+import org.phasorj.ui.phasor.ComponentFraction;
+import org.phasorj.ui.phasor.ComputePool;
+import org.phasorj.ui.phasor.DecayCube;
+import org.phasorj.ui.phasor.LifetimeMaps;
+import org.phasorj.ui.phasor.MedianFilter;
+import org.phasorj.ui.phasor.PhasorCalibration;
+import org.phasorj.ui.phasor.PhasorTransform;
+import org.phasorj.ui.phasor.SpatialBinning;
 
 
-import java.io.File;
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 public class PhasorProcessor {
     private final List<DataClass> dataArr;
 
     //Calibration parameters
     // autoCalib  = false when user select manual calibration
-    private boolean autoCalib;
+    private volatile boolean autoCalib;
 
     //parameters for auto calibration
-    private Dataset calibDS;
-    private double frequency;
-    private double calibLT;
+    private volatile Dataset calibDS;
+    private volatile double frequency;
+    private volatile double calibLT;
+    // edge length of the tiles a spatially varying reference is reduced over, 0 for one reference
+    private volatile int calibTileSize = 0;
+    private CalibrationReference calibReference;
 
     //parameters for manual calibration
-    private double mod_factor = 1;
-    private double phase_shift = 0;
-
-    private Context ctx;
-    private DefaultScriptService scriptService;
-    private ScriptLanguage scriptLang;
+    private volatile double mod_factor = 1;
+    private volatile double phase_shift = 0;
+
+    //summed intensity range of the pixels shown in the plot, inclusive
+    private volatile double intensityLow = 0;
+    private volatile double intensityHigh = Double.POSITIVE_INFINITY;
+    // orders adding entries against intensity range changes, so no entry misses a new range
+    private final Object entryLock = new Object();
+
+    //radius of the square window the decays are binned over before calibration, 0 for no binning
+    private volatile int binRadius = 0;
+
+    //lifetimes of the two components pixels are unmixed into, equal for no unmixing
+    private volatile double[] fractionTau = {0, 0};
+
+    //median filter applied to the calibrated G and S, off when the size is 1 or less
+    private volatile int medianFilterSize = 1;
+    private volatile int medianFilterRepeat = 1;
+
+    // harmonics computed for new entries, and the one shown and calibrated
+    private volatile int[] harmonics = {1};
+    private volatile int harmonic = 1;
+    private PhasorTransform transform;
+
+    // memory the decay data of one dataset may take before it is opened lazily and processed in
+    // tiles
+    private static final long DEFAULT_MEMORY_BUDGET = 512L << 20;
+    private volatile long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    // worker threads for per-pixel computations
+    private final ComputePool pool = new ComputePool();
+
+    // recalibrates several entries at once; each entry also splits its rows over the pool
+    private static final int MAX_CONCURRENT_ENTRIES = 4;
+    private final ExecutorService entryExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_ENTRIES, r -> {
+        Thread t = new Thread(r, "PhasorJ entry");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean plotRefreshQueued = new AtomicBoolean();
+    // entries whose newly published G and S the plot does not show yet
+    private final Set<DataClass> plotUpdates = ConcurrentHashMap.newKeySet();
+    private volatile Consumer<DataClass> onEntryUpdated;
 
     private PlotPhasor plotPhasor;
 
+    // delay before a burst of calibration changes is recomputed
+    private static final long RECOMPUTE_DEBOUNCE_MS = 30;
+    private final RecomputeScheduler scheduler = new RecomputeScheduler(RECOMPUTE_DEBOUNCE_MS,
+            this::updateAllPhasors, this::publishComponents, this::reportError);
+
 
 
     public PhasorProcessor() {
-        dataArr = new ArrayList<>();
+        dataArr = new CopyOnWriteArrayList<>();
         frequency = 0;
         calibLT = 0;
     }
 
-    public void addDS(Dataset ds) throws ExecutionException, InterruptedException, IOException, URISyntaxException {
-        ctx = ds.getContext();
-        scriptService = ctx.service(DefaultScriptService.class);
-        scriptLang = scriptService.getLanguageByName("Python");
-        ScriptInfo scriptInfo;
+    /**
+     * Compute, calibrate and add the phasor of a dataset. May be called off the FX thread, e.g.
+     * by a {@link FolderWatcher}. If the parameters changed while the entry was computed, a
+     * recomputation brings it up to date, as the one the change requested may not have seen it.
+     *
+     * @return the new entry
+     */
+    public DataClass addDS(Dataset ds) {
+        long requests = scheduler.getRequestCount();
+        DataClass entry = computeEntry(ds);
+        recomputeEntry(entry, currentReference());
+        synchronized (entryLock) {
+            for (int p = 0; p < entry.getPlaneCount(); p++) {
+                entry.getMask(p).setRange(intensityLow, intensityHigh);
+            }
+            dataArr.add(entry);
+        }
+        if (scheduler.getRequestCount() != requests) {
+            scheduler.request();
+        }
+        return entry;
+    }
 
-        URL resourceUrl = getClass().getClassLoader().getResource("python_scripts/phasor_fiji.py");
-        if (resourceUrl != null) {
-            scriptInfo = new ScriptInfo(ctx, resourceUrl, "phasor_fiji.py");
+    /**
+     * Compute the uncalibrated phasor of every plane of a FLIM Dataset in one pass over its
+     * decays: the mean intensity, shared by the image display, and G, S at every harmonic in
+     * {@link #getHarmonics()}.
+     */
+    private DataClass computeEntry(Dataset ds) {
+        int nBins = numBins(ds);
+        PhasorTransform t = getTransform(nBins);
+        return new DataClass(ds, transformDataset(t, ds, ImageDisplay.flimPlaneCount(ds)), nBins,
+                t.getHarmonics());
+    }
+
+    /**
+     * Run the transform on the decays of the first planes of the dataset, planes in parallel.
+     * Array and planar images of float, 16-bit and 8-bit unsigned data are read from their arrays
+     * directly, anything else through a view of one plane at a time; neither way makes a
+     * converted copy of the dataset. Planes larger than the memory budget, typically of cell
+     * images that are loaded lazily, are streamed one after the other in tiles of whole cells
+     * that fit the budget, see {@link #setMemoryBudget}.
+     *
+     * @param planes the number of planes to transform, see {@link ImageDisplay#flimPlaneCount}
+     * @return the X x Y x C x P phasor image of the planes
+     */
+    private ArrayImg<FloatType, FloatArray> transformDataset(PhasorTransform t, Dataset ds, int planes) {
+        RandomAccessibleInterval<?> first = ImageDisplay.flimView(ds);
+        long width = first.dimension(0);
+        long height = first.dimension(1);
+        int channels = PhasorTransform.channels(t.getHarmonics().length);
+        long size = width * height * channels * planes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The phasors of " + ds.getName() + " need " + size
+                    + " values, more than one array can hold");
+        }
+        ArrayImg<FloatType, FloatArray> out = ArrayImgs.floats(width, height, channels, planes);
+        float[] dst = out.update(null).getCurrentStorageArray();
+        int planeSize = (int) (width * height * channels);
+
+        if (ImageDisplay.flimCube(ds) == null && planeBytes(first) > memoryBudget) {
+            // one tile buffer at a time, so that the budget holds
+            for (int p = 0; p < planes; p++) {
+                transformPlane(t, ds, p, out, dst, p * planeSize);
+            }
         } else {
-            throw new IllegalArgumentException("Could not find phasor_fiji.py in resources");
+            pool.forEachRows(planes, (p0, p1) -> {
+                for (int p = (int) p0; p < p1; p++) {
+                    transformPlane(t, ds, p, out, dst, p * planeSize);
+                }
+            });
         }
+        return out;
+    }
+
+    private static long planeBytes(RandomAccessibleInterval<?> flim) {
+        return flim.dimension(0) * flim.dimension(1) * flim.dimension(2) * Float.BYTES;
+    }
 
-        scriptInfo.setLanguage(scriptLang);
+    private <T extends RealType<T>> void transformPlane(PhasorTransform t, Dataset ds, int plane,
+                                                        ArrayImg<FloatType, FloatArray> out,
+                                                        float[] dst, int offset) {
+        DecayCube cube = ImageDisplay.flimCube(ds, plane);
+        if (cube != null) {
+            t.transform(cube, dst, offset, pool);
+            return;
+        }
+        RandomAccessibleInterval<T> flim = ImageDisplay.flimView(ds, plane);
+        if (planeBytes(flim) > memoryBudget) {
+            t.transformTiled(flim, ImageDisplay.flimCellSize(ds), dst, offset, memoryBudget,
+                    ImageDisplay.flimCellRelease(ds), pool);
+        } else {
+            t.transform(flim, Views.hyperSlice(out, 3, plane), pool);
+        }
+    }
 
-        Map<String, Object> args = new HashMap<>();
-        args.put("img", ds);
-        Future<ScriptModule> result = scriptService.run(scriptInfo, true, args);
-        Dataset outputDS = (Dataset) result.get().getOutput("output");
-        System.out.println(outputDS.numDimensions());
-        var img = outputDS.getImgPlus();
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
 
-        var gData = Views.hyperSlice(img, 2, 1);
-        var sData = Views.hyperSlice(img, 2, 2);
-        dataArr.add(new DataClass(ds, (RandomAccessibleInterval<FloatType>) gData, (RandomAccessibleInterval<FloatType>) sData, outputDS));
+    /**
+     * Larger datasets should be opened as cell images. They are processed in tiles of whole
+     * cells, each cell read once and dropped from the cell cache right after, and the budget
+     * bounds the decays of one tile in flight: the cells being read, their copy and the running
+     * sums, see {@link PhasorTransform#transformTiled(RandomAccessibleInterval, int[], float[],
+     * int, long, Runnable, ComputePool)}. The phasor results of the dataset are not part of it.
+     *
+     * @param bytes the memory the decay data of one dataset may take
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive, got " + bytes);
+        }
+        this.memoryBudget = bytes;
+    }
+
+    private static int numBins(Dataset ds) {
+        return (int) ImageDisplay.flimView(ds).dimension(2);
+    }
+
+    /**
+     * @return a transform for the given number of time bins, reusing the cos/sin tables of the
+     * previous one when possible
+     */
+    private synchronized PhasorTransform getTransform(int nBins) {
+        if (transform == null || transform.getNumBins() != nBins || !transform.hasHarmonics(harmonics)) {
+            transform = new PhasorTransform(nBins, harmonics);
+        }
+        return transform;
+    }
+
+    public int getHarmonic() {
+        return harmonic;
+    }
+
+    /**
+     * Select the harmonic shown in the plot and recalibrate every entry at it.
+     *
+     * @param harmonic one of {@link #getHarmonics()}, also computed for every entry added so far
+     */
+    public void setHarmonic(int harmonic) {
+        if (Arrays.stream(harmonics).noneMatch(h -> h == harmonic)) {
+            throw new IllegalArgumentException("Harmonic " + harmonic + " is not among the computed harmonics "
+                    + Arrays.toString(harmonics));
+        }
+        for (DataClass entry : dataArr) {
+            if (!entry.hasHarmonic(harmonic)) {
+                throw new IllegalArgumentException("Harmonic " + harmonic + " was not computed for "
+                        + entry.getDataset().getName() + ", only " + Arrays.toString(entry.getHarmonics()));
+            }
+        }
+        this.harmonic = harmonic;
+        scheduler.request();
+    }
+
+    public int[] getHarmonics() {
+        return harmonics.clone();
+    }
+
+    /**
+     * Set the harmonics computed for entries added from now on. They are all computed in the
+     * same pass over the decays, so switching between them later needs no new pass.
+     *
+     * @param harmonics the harmonics; if the current one is missing, the first one that was also
+     *                  computed for every entry added so far is selected
+     */
+    public void setHarmonics(int... harmonics) {
+        if (harmonics.length == 0) {
+            throw new IllegalArgumentException("Need at least one harmonic");
+        }
+        if (Arrays.stream(harmonics).anyMatch(h -> h == harmonic)) {
+            this.harmonics = harmonics.clone();
+            return;
+        }
+        for (int h : harmonics) {
+            if (dataArr.stream().allMatch(entry -> entry.hasHarmonic(h))) {
+                this.harmonics = harmonics.clone();
+                this.harmonic = h;
+                scheduler.request();
+                return;
+            }
+        }
+        throw new IllegalArgumentException("None of the harmonics " + Arrays.toString(harmonics)
+                + " was computed for every entry");
+    }
+
+    public int getThreadBudget() {
+        return pool.getThreads();
+    }
+
+    /**
+     * @param threads the number of threads used for phasor computations
+     */
+    public void setThreadBudget(int threads) {
+        pool.setThreads(threads);
+    }
+
+    public ComputePool getPool() {
+        return pool;
     }
 
     public double getFrequency() {
         return frequency;
     }
 
+    /**
+     * @param frequency laser repetition frequency in MHz; a positive value also updates the
+     *                  lifetime maps of every entry
+     */
     public void setFrequency(double frequency) {
         this.frequency = frequency;
+        if (frequency > 0) {
+            scheduler.request();
+        }
     }
 
     public Dataset getCalibImg() {
@@ -97,55 +337,14 @@ public class PhasorProcessor {
     public void setCalibImG(Dataset ds, Runnable onComplete){
         this.calibDS = ds;
         this.autoCalib = true;
+        scheduler.request(onComplete);
+    }
 
-        // Create background task for heavy processing
-        javafx.concurrent.Task<Void> processingTask = new javafx.concurrent.Task<Void>() {
-            @Override
-            protected Void call() throws Exception {
-                try {
-                    updateAllPhasors();
-                    return null;
-                } catch (Exception e) {
-                    System.err.println("Error during phasor recalculation: " + e.getMessage());
-                    e.printStackTrace();
-                    throw e;
-                }
-            }
-
-            @Override
-            protected void succeeded() {
-                super.succeeded();
-                // Update UI on JavaFX thread
-                javafx.application.Platform.runLater(() -> {
-                    if (plotPhasor != null) {
-                        plotPhasor.updatePhasorPlot();
-                    }
-                    if (onComplete != null) {
-                        onComplete.run();
-                    }
-                    System.out.println("Phasor plot updated successfully");
-                });
-            }
-
-            @Override
-            protected void failed() {
-                super.failed();
-                Throwable exception = getException();
-                javafx.application.Platform.runLater(() -> {
-                    System.err.println("Failed to process calibration: " + exception.getMessage());
-                    // Show error to user
-                    javafx.scene.control.Alert error = new javafx.scene.control.Alert(javafx.scene.control.Alert.AlertType.ERROR);
-                    error.setHeaderText("Processing Error");
-                    error.setContentText("Failed to process calibration image: " + exception.getMessage());
-                    error.showAndWait();
-                });
-            }
-        };
-
-        // Run processing in background thread
-        Thread processingThread = new Thread(processingTask);
-        processingThread.setDaemon(true);
-        processingThread.start();
+    /**
+     * @return the scheduler running recalibrations, e.g. to read its queue statistics
+     */
+    public RecomputeScheduler getScheduler() {
+        return scheduler;
     }
 
     public List<DataClass> getEntries() {
@@ -156,6 +355,16 @@ public class PhasorProcessor {
         return dataArr.get(index);
     }
 
+    /**
+     * @return the entry computed from the dataset, or null if it was not added
+     */
+    public DataClass getEntry(Dataset ds) {
+        for (DataClass entry : dataArr) {
+            if (entry.getDataset() == ds) return entry;
+        }
+        return null;
+    }
+
     public int getEntryCount() {
         return dataArr.size();
     }
@@ -165,32 +374,160 @@ public class PhasorProcessor {
 
     }
 
-    public void setMod_factor(double mod_factor) throws IOException, ExecutionException, InterruptedException {
+    public void setMod_factor(double mod_factor) {
         this.mod_factor = mod_factor;
         autoCalib = false;
-        updateAllPhasors();
-        plotPhasor.updatePhasorPlot();
-
+        scheduler.request();
     }
 
     public double getPhase_shift() {
         return phase_shift;
     }
 
-    public void setPhase_shift(double phase_shift) throws IOException, ExecutionException, InterruptedException {
+    public void setPhase_shift(double phase_shift) {
         this.phase_shift = phase_shift;
         autoCalib = false;
-        updateAllPhasors();
-        plotPhasor.updatePhasorPlot();
-
+        scheduler.request();
     }
 
     public double getCalibLT() {
         return calibLT;
     }
 
+    /**
+     * @param calibLT lifetime of the calibration image in ns; entries calibrated with the image
+     *                are recalibrated
+     */
     public void setCalibLT(double calibLT) {
         this.calibLT = calibLT;
+        scheduler.request();
+    }
+
+    public double getIntensityLow() {
+        return intensityLow;
+    }
+
+    public double getIntensityHigh() {
+        return intensityHigh;
+    }
+
+    /**
+     * Set the summed intensity range of the pixels shown in the plot and used for cursor
+     * selection. Only the intensity masks are updated, the phasors are not recomputed. Call on
+     * the FX thread.
+     *
+     * @param low  lowest intensity included
+     * @param high highest intensity included
+     */
+    public void setIntensityRange(double low, double high) {
+        synchronized (entryLock) {
+            this.intensityLow = low;
+            this.intensityHigh = high;
+            for (DataClass entry : dataArr) {
+                for (int p = 0; p < entry.getPlaneCount(); p++) {
+                    entry.getMask(p).setRange(low, high);
+                }
+            }
+        }
+        publishPhasors();
+    }
+
+    public int getBinRadius() {
+        return binRadius;
+    }
+
+    /**
+     * Bin the decays of every pixel with those of its neighbors within {@code radius}, a
+     * (2 * radius + 1)^2 window. The binned phasor is derived from the phasor already computed,
+     * at the same cost for every radius, without reading the file again.
+     *
+     * @param radius the bin radius, 0 turns binning off
+     */
+    public void setBinRadius(int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Bin radius must not be negative, got " + radius);
+        }
+        this.binRadius = radius;
+        scheduler.request();
+    }
+
+    /**
+     * Unmix every pixel into two components with the given lifetimes, whose phasors lie on the
+     * universal circle at the current frequency and harmonic. Only the fractions are computed
+     * again, from the filtered G and S kept by every entry, so moving a component is cheap.
+     *
+     * @param tau1 lifetime of the first component in ns
+     * @param tau2 lifetime of the second component in ns, equal to {@code tau1} turns unmixing
+     *             off
+     */
+    public void setFractionComponents(double tau1, double tau2) {
+        if (tau1 < 0 || tau2 < 0) {
+            throw new IllegalArgumentException("Component lifetimes must not be negative, got "
+                    + tau1 + " and " + tau2);
+        }
+        this.fractionTau = new double[]{tau1, tau2};
+        scheduler.request();
+    }
+
+    /**
+     * @param index 0 for the first component, 1 for the second
+     * @return G and S of the component on the universal circle, or null when unmixing is off or
+     * the frequency is not set
+     */
+    public double[] getFractionComponent(int index) {
+        double[] tau = fractionTau;
+        double f = frequency;
+        if (tau[0] == tau[1] || !(f > 0)) {
+            return null;
+        }
+        return PhasorCalibration.lifetimePhasor(f * harmonic, tau[index]);
+    }
+
+    public int getMedianFilterSize() {
+        return medianFilterSize;
+    }
+
+    /**
+     * @param size edge length of the median filter window applied to G and S, odd; 1 or less
+     *             turns the filter off
+     */
+    public void setMedianFilterSize(int size) {
+        if (size > 1 && size % 2 == 0) {
+            throw new IllegalArgumentException("Median filter size must be odd, got " + size);
+        }
+        this.medianFilterSize = size;
+        scheduler.request();
+    }
+
+    public int getMedianFilterRepeat() {
+        return medianFilterRepeat;
+    }
+
+    /**
+     * @param repeat number of times the median filter is applied
+     */
+    public void setMedianFilterRepeat(int repeat) {
+        if (repeat < 1) {
+            throw new IllegalArgumentException("Median filter repeat must be at least 1, got " + repeat);
+        }
+        this.medianFilterRepeat = repeat;
+        scheduler.request();
+    }
+
+    public int getCalibTileSize() {
+        return calibTileSize;
+    }
+
+    /**
+     * @param calibTileSize edge length of the tiles the calibration reference is reduced over,
+     *                      or 0 to reduce the whole calibration image to one reference phasor
+     */
+    public void setCalibTileSize(int calibTileSize) {
+        if (calibTileSize < 0) {
+            throw new IllegalArgumentException("Tile size must not be negative, got " + calibTileSize);
+        }
+        this.calibTileSize = calibTileSize;
+        scheduler.request();
     }
 
     public boolean isAutoCalib() {
@@ -201,66 +538,351 @@ public class PhasorProcessor {
         this.autoCalib = autoCalib;
     }
 
-    private void recomputePhasorManual(DataClass entry) throws ExecutionException, InterruptedException, IOException {
-        ScriptInfo scriptInfo;
-        URL resourceUrl = getClass().getClassLoader().getResource("python_scripts/manualCalib.py");
-        if (resourceUrl != null) {
-            scriptInfo = new ScriptInfo(ctx, resourceUrl, "phasor_fiji.py");
-        } else {
-            throw new IllegalArgumentException("Could not find phasor_fiji.py in resources");
+    /**
+     * Run the binning, calibration, lifetime, filter and unmixing stages of every plane of one
+     * entry with the current parameters. Every stage but unmixing is skipped when its parameters
+     * did not change since the last run: a new median filter does not recalibrate, and new
+     * unmixing components only compute the fractions again.
+     *
+     * @param reference the calibration reference, or null for manual calibration or while the
+     *                  image calibration waits for a frequency
+     * @return whether new G and S were published, so that the plot has to collect them
+     */
+    private boolean recomputeEntry(DataClass entry, CalibrationReference reference) {
+        List<Object> calibration = calibrationParameters(reference);
+        if (!calibration.equals(entry.getCalibratedWith())) {
+            PhasorSource source = applyBinning(entry);
+            if (reference != null) {
+                recomputePhasorAuto(entry, source, reference);
+            } else if (awaitingFrequency()) {
+                recomputePhasorManual(entry, source, 0, 1);
+            } else {
+                recomputePhasorManual(entry, source, phase_shift, mod_factor);
+            }
+            entry.setCalibratedWith(calibration);
+        }
+        updateLifetimes(entry, calibration);
+        int size = medianFilterSize;
+        int repeat = size > 1 ? medianFilterRepeat : 1;
+        List<Object> filter = Arrays.asList(calibration, Math.max(size, 1), repeat);
+        boolean published = !filter.equals(entry.getFilteredWith());
+        if (published) {
+            applyMedianFilter(entry, size, repeat);
+            entry.publishOutputPhasor();
+            entry.setFilteredWith(filter);
         }
-        scriptInfo.setLanguage(scriptLang);
+        updateFractions(entry, entry.getPublishedPhasorArray());
+        return published;
+    }
 
-        Map<String, Object> args = new HashMap<>();
-        args.put("mod_factor", mod_factor);
-        args.put("phase_shift", phase_shift);
-        args.put("raw_phasor", entry.getRawPhasor());
+    /**
+     * @return everything the calibrated phasor depends on, compared to decide whether an entry
+     * has to be calibrated again
+     */
+    private List<Object> calibrationParameters(CalibrationReference reference) {
+        if (reference != null) {
+            return Arrays.asList("auto", reference, frequency, calibLT, harmonic, binRadius);
+        }
+        if (awaitingFrequency()) {
+            return Arrays.asList("uncalibrated", harmonic, binRadius);
+        }
+        return Arrays.asList("manual", phase_shift, mod_factor, harmonic, binRadius);
+    }
 
-        Future<ScriptModule> result = scriptService.run(scriptInfo, true, args);
-        Dataset outputDS = (Dataset) result.get().getOutput("output");
+    /**
+     * Compute the phase and modulation lifetime maps of the entry from its calibrated phasor,
+     * unless they are up to date with the calibration and frequency. Without a frequency the
+     * maps are NaN.
+     */
+    private void updateLifetimes(DataClass entry, List<Object> calibration) {
+        double f = frequency;
+        List<Object> parameters = Arrays.asList(calibration, f);
+        if (parameters.equals(entry.getLifetimesWith())) {
+            return;
+        }
+        int plane = entry.getWidth() * entry.getHeight();
+        float[] calib = entry.getCalibratedPhasorArray();
+        float[] tau = entry.getLifetimeArray();
+        for (int p = 0; p < entry.getPlaneCount(); p++) {
+            int g = entry.getStageOffset(p);
+            if (f > 0) {
+                LifetimeMaps.compute(calib, g, g + plane, tau, g, g + plane,
+                        entry.getWidth(), entry.getHeight(), f * harmonic, pool);
+            } else {
+                Arrays.fill(tau, g, g + 2 * plane, Float.NaN);
+            }
+        }
+        entry.setLifetimesWith(parameters);
+    }
 
-        var img = outputDS.getImgPlus();
-        var gData = Views.hyperSlice(img, 2, 0);
-        var sData = Views.hyperSlice(img, 2, 1);
+    /**
+     * The G and S planes the calibration reads for one entry: its raw phasor, or the binned one.
+     */
+    private static final class PhasorSource {
+        final float[] array;
+        // offsets of the G and S plane of every plane in array
+        final int[] real, imag;
+
+        PhasorSource(float[] array, int planes) {
+            this.array = array;
+            this.real = new int[planes];
+            this.imag = new int[planes];
+        }
+    }
 
-        entry.updatePhasor((RandomAccessibleInterval<FloatType>) gData,
-                (RandomAccessibleInterval<FloatType>) sData);
+    /**
+     * Bin the raw phasor of the entry at the current harmonic into its binned phasor buffer. The
+     * summed-area tables of the entry are built at the first binning at a harmonic and kept, so a
+     * new radius only runs the window lookups; they are dropped when binning is turned off.
+     *
+     * @return the binned phasor, or the raw one when binning is off
+     */
+    private PhasorSource applyBinning(DataClass entry) {
+        int h = harmonic;
+        int radius = binRadius;
+        int plane = entry.getWidth() * entry.getHeight();
+        float[] raw = entry.getRawPhasorArray();
+        PhasorSource source = new PhasorSource(radius > 0 ? entry.getBinnedPhasorArray() : raw,
+                entry.getPlaneCount());
+        if (radius == 0) {
+            entry.clearBinningTables();
+        }
+        for (int p = 0; p < entry.getPlaneCount(); p++) {
+            if (radius > 0) {
+                source.real[p] = entry.getStageOffset(p);
+                source.imag[p] = entry.getStageOffset(p) + plane;
+                SpatialBinning tables = entry.getBinningTables(h, p);
+                if (tables == null) {
+                    tables = new SpatialBinning(raw, entry.getMeanOffset(p), entry.getRawGOffset(h, p),
+                            entry.getRawSOffset(h, p), entry.getWidth(), entry.getHeight(), pool);
+                    entry.setBinningTables(h, p, tables);
+                }
+                tables.apply(source.array, source.real[p], source.imag[p], radius, pool);
+            } else {
+                source.real[p] = entry.getRawGOffset(h, p);
+                source.imag[p] = entry.getRawSOffset(h, p);
+            }
+        }
+        return source;
     }
 
-    private void recomputePhasorAuto(DataClass entry) throws ExecutionException, InterruptedException, IOException {
-        ScriptInfo scriptInfo;
-        URL resourceUrl = getClass().getClassLoader().getResource("python_scripts/autoCalib.py");
-        if (resourceUrl != null) {
-            scriptInfo = new ScriptInfo(ctx, resourceUrl, "phasor_fiji.py");
-        } else {
-            throw new IllegalArgumentException("Could not find phasor_fiji.py in resources");
-        }        scriptInfo.setLanguage(scriptLang);
-        Map<String, Object> args = new HashMap<>();
-        args.put("raw_phasor", entry.getRawPhasor());
-        args.put("calib_img", calibDS);
-        System.out.println(calibDS.numDimensions());
+    /**
+     * Median filter the calibrated G and S of the entry into its output buffer, or copy them
+     * there when filtering is off. The plot keeps reading the previous output until the entry
+     * publishes this one.
+     *
+     * @param size   edge length of the window, 1 or less for no filter
+     * @param repeat number of times the filter is applied
+     */
+    private void applyMedianFilter(DataClass entry, int size, int repeat) {
+        float[] calib = entry.getCalibratedPhasorArray();
+        float[] filtered = entry.getOutputPhasorArray();
+        if (size <= 1) {
+            System.arraycopy(calib, 0, filtered, 0, calib.length);
+            return;
+        }
+        int plane = entry.getWidth() * entry.getHeight();
+        MedianFilter filter = entry.getMedianFilter();
+        for (int p = 0; p < entry.getPlaneCount(); p++) {
+            int g = entry.getStageOffset(p);
+            filter.apply(calib, g, filtered, g, size, repeat, pool);
+            filter.apply(calib, g + plane, filtered, g + plane, size, repeat, pool);
+        }
+    }
 
-        Future<ScriptModule> result = scriptService.run(scriptInfo, true, args);
-        Dataset outputDS = (Dataset) result.get().getOutput("output");
+    /**
+     * Compute the fraction of the first component in every pixel of the entry from its final G
+     * and S, or fill the fractions with NaN when unmixing is off.
+     *
+     * @param phasor the published G and S, see {@link DataClass#getPublishedPhasorArray()}
+     */
+    private void updateFractions(DataClass entry, float[] phasor) {
+        double[] c1 = getFractionComponent(0);
+        double[] c2 = getFractionComponent(1);
+        int plane = entry.getWidth() * entry.getHeight();
+        float[] fractions = entry.getFractionArray();
+        if (c1 == null || c2 == null) {
+            Arrays.fill(fractions, Float.NaN);
+            return;
+        }
+        for (int p = 0; p < entry.getPlaneCount(); p++) {
+            int g = entry.getStageOffset(p);
+            ComponentFraction.compute(phasor, g, g + plane, fractions, entry.getFractionOffset(p),
+                    entry.getWidth(), entry.getHeight(), c1[0], c1[1], c2[0], c2[1], pool);
+        }
+    }
+
+    /**
+     * Rotate and scale the phasor of the entry, writing into the entry's calibrated phasor
+     * buffer. A phase of 0 and a modulation of 1 copy it uncalibrated.
+     */
+    private void recomputePhasorManual(DataClass entry, PhasorSource source, double phase, double modulation) {
+        int plane = entry.getWidth() * entry.getHeight();
+        float[] calib = entry.getCalibratedPhasorArray();
+        for (int p = 0; p < entry.getPlaneCount(); p++) {
+            int g = entry.getStageOffset(p);
+            PhasorCalibration.transform(source.array, source.real[p], source.imag[p],
+                    calib, g, g + plane,
+                    entry.getWidth(), entry.getHeight(),
+                    phase, modulation, pool);
+        }
+    }
+
+    /**
+     * Calibrate the phasor of the entry against the cached calibration reference, writing into
+     * the entry's calibrated phasor buffer.
+     */
+    private void recomputePhasorAuto(DataClass entry, PhasorSource source, CalibrationReference reference) {
+        int plane = entry.getWidth() * entry.getHeight();
+        float[] calib = entry.getCalibratedPhasorArray();
+        for (int p = 0; p < entry.getPlaneCount(); p++) {
+            int g = entry.getStageOffset(p);
+            reference.apply(source.array, source.real[p], source.imag[p],
+                    calib, g, g + plane,
+                    entry.getWidth(), entry.getHeight(),
+                    frequency, calibLT, pool);
+        }
+    }
+
+    /**
+     * @return the calibration reference when calibrating with an image, or null for manual
+     * calibration and until the frequency is set, see {@link #awaitingFrequency()}
+     */
+    private CalibrationReference currentReference() {
+        if (!autoCalib || calibDS == null || awaitingFrequency()) {
+            return null;
+        }
+        return getCalibrationReference();
+    }
 
-        var img = outputDS.getImgPlus();
-        var gData = Views.hyperSlice(img, 2, 0);
-        var sData = Views.hyperSlice(img, 2, 1);
+    /**
+     * @return whether calibrating with an image waits for the frequency; entries are left
+     * uncalibrated until {@link #setFrequency} recalibrates them
+     */
+    private boolean awaitingFrequency() {
+        return autoCalib && calibDS != null && !(frequency > 0);
+    }
+
+    /**
+     * @return the reference phasor of the calibration image, computed on first use and shared
+     * by all entries until the calibration image, harmonic or tile size changes
+     */
+    private synchronized CalibrationReference getCalibrationReference() {
+        if (calibReference == null || !calibReference.matches(calibDS, harmonic, calibTileSize)) {
+            calibReference = computeCalibrationReference(calibDS);
+        }
+        return calibReference;
+    }
 
-        entry.updatePhasor((RandomAccessibleInterval<FloatType>) gData,
-                (RandomAccessibleInterval<FloatType>) sData);
+    private CalibrationReference computeCalibrationReference(Dataset ds) {
+        // the reference is reduced over the first plane only
+        ArrayImg<FloatType, FloatArray> phasor = transformDataset(new PhasorTransform(numBins(ds), harmonic), ds, 1);
+        return new CalibrationReference(ds, harmonic, phasor.update(null).getCurrentStorageArray(),
+                (int) phasor.dimension(0), (int) phasor.dimension(1), calibTileSize);
     }
 
-    private void updateAllPhasors() throws ExecutionException, InterruptedException, IOException {
+    /**
+     * Recalibrate every entry with the current parameters. Entries are recomputed concurrently
+     * and each one is reported through {@link #setOnEntryUpdated} as soon as it is done.
+     *
+     * @param cancelled turns true when a newer request made this computation stale
+     */
+    private void updateAllPhasors(BooleanSupplier cancelled) {
+        CalibrationReference reference = currentReference();
+
+        List<Future<?>> futures = new ArrayList<>();
         for (DataClass entry : dataArr) {
-            if (autoCalib && calibDS != null) {
-                recomputePhasorAuto(entry);
-            } else {
-                recomputePhasorManual(entry);
+            futures.add(entryExecutor.submit(() -> {
+                if (cancelled.getAsBoolean()) return;
+                boolean published = recomputeEntry(entry, reference);
+                if (!cancelled.getAsBoolean()) {
+                    entryUpdated(entry, published);
+                } else if (published) {
+                    // the next computation finds the entry up to date and will not refresh it
+                    refreshPlot(entry);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
             }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(false));
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(false));
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Notify the entry listener and, if the entry published new G and S, refresh its points in
+     * the plot on the FX thread.
+     */
+    private void entryUpdated(DataClass entry, boolean published) {
+        Consumer<DataClass> listener = onEntryUpdated;
+        if (listener != null) {
+            Platform.runLater(() -> listener.accept(entry));
+        }
+        if (published) {
+            refreshPlot(entry);
+        }
+    }
+
+    /**
+     * Refresh the points of an entry on the FX thread. Entries that finish while a refresh is
+     * still queued are refreshed with it.
+     */
+    private void refreshPlot(DataClass entry) {
+        plotUpdates.add(entry);
+        if (plotRefreshQueued.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                plotRefreshQueued.set(false);
+                List<DataClass> entries = new ArrayList<>();
+                for (Iterator<DataClass> it = plotUpdates.iterator(); it.hasNext(); ) {
+                    entries.add(it.next());
+                    it.remove();
+                }
+                if (plotPhasor != null && !entries.isEmpty()) {
+                    plotPhasor.updateEntries(entries);
+                }
+            });
         }
     }
 
+    /**
+     * @param listener called on the FX thread each time an entry has been recalibrated
+     */
+    public void setOnEntryUpdated(Consumer<DataClass> listener) {
+        this.onEntryUpdated = listener;
+    }
+
+    private void publishPhasors() {
+        if (plotPhasor != null) {
+            plotPhasor.updatePhasorPlot();
+        }
+    }
+
+    /**
+     * Show the unmixing components of a finished recomputation; the points were refreshed as
+     * their entries finished.
+     */
+    private void publishComponents() {
+        if (plotPhasor != null) {
+            plotPhasor.updateFractionComponents();
+        }
+    }
+
+    private void reportError(Throwable exception) {
+        System.err.println("Failed to recalibrate phasors: " + exception.getMessage());
+        Alert error = new Alert(Alert.AlertType.ERROR);
+        error.setHeaderText("Processing Error");
+        error.setContentText("Failed to recalibrate phasors: " + exception.getMessage());
+        error.showAndWait();
+    }
+
     public void setPlotPhasor(PlotPhasor plot) {
         this.plotPhasor = plot;
     }
@@ -2,26 +2,27 @@ package org.phasorj.ui;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URISyntaxException;
-import java.util.concurrent.ExecutionException;
+import java.util.HashMap;
 
+import io.scif.config.SCIFIOConfig;
+import io.scif.img.ImgMode;
 import io.scif.services.DatasetIOService;
 import javafx.scene.chart.LineChart;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.StackPane;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import net.imagej.Dataset;
 import net.imagej.display.DatasetView;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.Img;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.view.Views;
 import org.controlsfx.control.CheckListView;
 import org.phasorj.ui.controllerHelpers.Calibration;
 import org.phasorj.ui.controllerHelpers.Export;
 import org.phasorj.ui.controllerHelpers.ImageDisplay;
 import org.phasorj.ui.controllerHelpers.PlotPhasor;
+import org.phasorj.ui.controllerHelpers.plot.PlotRenderer;
 import org.phasorj.ui.controls.NumericSpinner;
 import org.phasorj.ui.controls.NumericTextField;
 
@@ -29,8 +30,6 @@ import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import org.scijava.Context;
 
-import static org.phasorj.ui.controllerHelpers.ImageDisplay.processDataset;
-
 public class PluginController {
     private Context ctx;
     private DatasetView datasetView;
@@ -40,15 +39,34 @@ public class PluginController {
     @FXML private StackPane plotPane;
     LineChart<Number, Number> phasor_plot;
     @FXML private ImageView image_view;
+    @FXML private ChoiceBox<String> imageModeChoice;
+    private static final String SHOW_INTENSITY = "Intensity";
+    private static final String SHOW_TAU_PHI = "Phase Lifetime";
+    private static final String SHOW_TAU_MOD = "Modulation Lifetime";
+    private static final String SHOW_FRACTION = "Component Fraction";
+    @FXML private ChoiceBox<String> plotModeChoice;
+    private static final String PLOT_POINTS = "Phasor Points";
+    private static final String PLOT_DENSITY_LINEAR = "Phasor Density (Linear)";
+    private static final String PLOT_DENSITY_LOG = "Phasor Density (Log)";
     private ImageDisplay intensityDisplay;
-    private Img<FloatType> summedIntensity;
+    private RandomAccessibleInterval<FloatType> summedIntensity;
     @FXML private Button addImageButton;
+    @FXML private Button watchFolderButton;
+    private FolderWatcher folderWatcher;
+    // loaded datasets that may wait for compute while watching a folder
+    private static final int MAX_LOADED_DATASETS = 2;
  //   @FXML private CheckListView<String> dsList;
 
     //Parameters
     @FXML private NumericSpinner intensity_up;
     @FXML private NumericSpinner intensity_low;
     @FXML private NumericSpinner median_filter_size;
+    @FXML private NumericSpinner plane_index;
+    @FXML private NumericSpinner bin_radius;
+    @FXML private NumericSpinner component1_tau;
+    @FXML private NumericSpinner component2_tau;
+    private static final int MAX_MEDIAN_FILTER_SIZE = 15;
+    private static final int MAX_BIN_RADIUS = 10;
 
     //Calibration
     @FXML private CheckBox manualCalibrationCheckbox;
@@ -83,6 +101,32 @@ public class PluginController {
         setupImageDisplayWithHighlights();
         processor.setPlotPhasor(plt);
 
+        imageModeChoice.getItems().addAll(SHOW_INTENSITY, SHOW_TAU_PHI, SHOW_TAU_MOD, SHOW_FRACTION);
+        imageModeChoice.setValue(SHOW_INTENSITY);
+        imageModeChoice.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (datasetView != null) {
+                displayOriginalImage();
+            }
+        });
+        plotModeChoice.getItems().addAll(PLOT_POINTS, PLOT_DENSITY_LINEAR, PLOT_DENSITY_LOG);
+        plotModeChoice.setValue(PLOT_POINTS);
+        plotModeChoice.valueProperty().addListener((obs, oldVal, newVal) -> {
+            if (PLOT_DENSITY_LINEAR.equals(newVal)) {
+                plt.setPointMode(PlotRenderer.PointMode.DENSITY_LINEAR);
+            } else if (PLOT_DENSITY_LOG.equals(newVal)) {
+                plt.setPointMode(PlotRenderer.PointMode.DENSITY_LOG);
+            } else {
+                plt.setPointMode(PlotRenderer.PointMode.POINTS);
+            }
+        });
+        // lifetime and fraction maps change with the calibration
+        processor.setOnEntryUpdated(entry -> {
+            if (datasetView != null && entry.getDataset() == datasetView.getData()
+                    && !SHOW_INTENSITY.equals(imageModeChoice.getValue())) {
+                displayOriginalImage();
+            }
+        });
+
         /**
          * Adding Image
          */
@@ -94,17 +138,79 @@ public class PluginController {
             DatasetIOService dss = ctx.service(DatasetIOService.class);
             if (dss.canOpen(newFLIMPath)){
                 try {
-                    Dataset newDS = dss.open(newFLIMPath);
+                    Dataset newDS = openDataset(dss, newFLIM);
                     processor.addDS(newDS);
                  //   dsList.getItems().add(newDS.getName());
+                    updatePlaneRange();
                     plt.updatePhasorPlot();
-                } catch (IOException | ExecutionException | InterruptedException | URISyntaxException ex) {
+                } catch (IOException ex) {
                     throw new RuntimeException(ex);
                 }
             }
         });
 
 
+        /**
+         * Watching a folder
+         */
+        watchFolderButton.setOnAction(e -> toggleFolderWatch());
+
+        /**
+         * Parameters
+         */
+        HashMap<String, Double> unbounded = new HashMap<>();
+        unbounded.put("inf", Double.POSITIVE_INFINITY);
+        unbounded.put("max", Double.POSITIVE_INFINITY);
+        intensity_low.setMin(0);
+        intensity_low.setClamped(processor.getIntensityLow());
+        intensity_up.setMin(0);
+        intensity_up.setKwMap(unbounded);
+        intensity_up.setClamped(processor.getIntensityHigh());
+        intensity_low.getNumberProperty().addListener((obs, oldVal, newVal) ->
+                processor.setIntensityRange(newVal, intensity_up.getNumberProperty().get()));
+        intensity_up.getNumberProperty().addListener((obs, oldVal, newVal) ->
+                processor.setIntensityRange(intensity_low.getNumberProperty().get(), newVal));
+
+        median_filter_size.setIntOnly(true);
+        median_filter_size.setMin(1);
+        median_filter_size.setMax(MAX_MEDIAN_FILTER_SIZE);
+        median_filter_size.setStepSize(2);
+        median_filter_size.setClamped(1.0);
+        median_filter_size.getNumberProperty().addListener((obs, oldVal, newVal) -> {
+            // round even sizes up so the window stays centered
+            processor.setMedianFilterSize(newVal.intValue() | 1);
+        });
+
+        bin_radius.setIntOnly(true);
+        bin_radius.setMin(0);
+        bin_radius.setMax(MAX_BIN_RADIUS);
+        bin_radius.setClamped(0.0);
+        bin_radius.getNumberProperty().addListener((obs, oldVal, newVal) ->
+                processor.setBinRadius(newVal.intValue()));
+
+        component1_tau.setMin(0);
+        component1_tau.setStepSize(0.1);
+        component1_tau.setClamped(0.0);
+        component2_tau.setMin(0);
+        component2_tau.setStepSize(0.1);
+        component2_tau.setClamped(0.0);
+        component1_tau.getNumberProperty().addListener((obs, oldVal, newVal) ->
+                processor.setFractionComponents(newVal, component2_tau.getNumberProperty().get()));
+        component2_tau.getNumberProperty().addListener((obs, oldVal, newVal) ->
+                processor.setFractionComponents(component1_tau.getNumberProperty().get(), newVal));
+
+        plane_index.setIntOnly(true);
+        plane_index.setMin(0);
+        plane_index.setMax(0);
+        plane_index.setClamped(0.0);
+        plane_index.getNumberProperty().addListener((obs, oldVal, newVal) -> {
+            plt.setPlane(newVal.intValue());
+            if (datasetView != null) {
+                displayOriginalImage();
+                plotPhasor();
+            }
+        });
+
         /**
          *  Export section
          * */
@@ -126,14 +232,75 @@ public class PluginController {
         });
     }
 
+    /**
+     * Open a FLIM file. Files larger than the processor's memory budget are opened as cell images
+     * whose cells SCIFIO loads on demand, so that they can be processed in tiles of whole cells
+     * that are dropped from SCIFIO's cache once read; see {@link PhasorProcessor#setMemoryBudget}
+     * for what the budget bounds.
+     */
+    private Dataset openDataset(DatasetIOService dss, File file) throws IOException {
+        if (file.length() > processor.getMemoryBudget()) {
+            return dss.open(file.getPath(), new SCIFIOConfig().imgOpenerSetImgModes(ImgMode.CELL));
+        }
+        return dss.open(file.getPath());
+    }
+
+    /**
+     * Start adding the FLIM files written into a folder, or stop if a folder is already watched.
+     */
+    private void toggleFolderWatch() {
+        if (folderWatcher != null) {
+            try {
+                folderWatcher.close();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            folderWatcher = null;
+            watchFolderButton.setText("Watch Folder");
+            return;
+        }
+
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Watch folder for new FLIM images");
+        File folder = chooser.showDialog(watchFolderButton.getScene().getWindow());
+        if (folder == null) {
+            return;
+        }
+        DatasetIOService dss = ctx.service(DatasetIOService.class);
+        try {
+            folderWatcher = new FolderWatcher(folder.toPath(),
+                    file -> dss.canOpen(file.toString()),
+                    file -> openDataset(dss, file.toFile()),
+                    processor::addDS,
+                    entry -> {
+                        updatePlaneRange();
+                        plt.addEntry(entry);
+                    },
+                    this::reportWatchError,
+                    MAX_LOADED_DATASETS);
+        } catch (IOException ex) {
+            reportWatchError(ex);
+            return;
+        }
+        watchFolderButton.setText("Stop Watching");
+    }
+
+    private void reportWatchError(Throwable exception) {
+        Alert error = new Alert(Alert.AlertType.ERROR);
+        error.setHeaderText("Watch Folder Error");
+        error.setContentText(exception.getMessage());
+        error.show();
+    }
+
     public void loadCtx(Context ctx) {
         this.ctx = ctx;
     }
 
-    public void loadDatasetView(DatasetView datasetView) throws ExecutionException, InterruptedException, IOException, URISyntaxException {
+    public void loadDatasetView(DatasetView datasetView) {
         this.datasetView = datasetView;
         processor.addDS(datasetView.getData());
    //     dsList.getItems().add(datasetView.getData().getName());
+        updatePlaneRange();
 
         if (plt != null) {
             plt.updatePhasorPlot();
@@ -141,12 +308,34 @@ public class PluginController {
     }
 
     /**
-     * Sum the datasetView along the lifetime axis and load the image to the ImageView
+     * Let the plane spinner reach the last plane of the entry with the most planes.
+     */
+    private void updatePlaneRange() {
+        int planes = 1;
+        for (DataClass entry : processor.getEntries()) {
+            planes = Math.max(planes, entry.getPlaneCount());
+        }
+        plane_index.setMax(planes - 1);
+    }
+
+    /**
+     * Load the summed intensity, or a lifetime map, of the shown plane of the datasetView to the
+     * ImageView. The intensity comes from the same pass over the decays that computed the phasor.
      * */
     public void displayOriginalImage() {
-        RandomAccessibleInterval<FloatType> originalImg = processDataset(datasetView.getData());
-        summedIntensity = ImageDisplay.sumIntensity(originalImg, 2);
-        ImageDisplay.loadAnotatedIntensityImage(Views.hyperSlice(summedIntensity, 2, 0), intensityDisplay);
+        DataClass entry = processor.getEntry(datasetView.getData());
+        int plane = Math.min(plt.getPlane(), entry.getPlaneCount() - 1);
+        summedIntensity = entry.getIntensity(plane);
+        String mode = imageModeChoice.getValue();
+        if (SHOW_TAU_PHI.equals(mode)) {
+            ImageDisplay.loadLifetimeImage(entry.getTauPhi(plane), intensityDisplay);
+        } else if (SHOW_TAU_MOD.equals(mode)) {
+            ImageDisplay.loadLifetimeImage(entry.getTauMod(plane), intensityDisplay);
+        } else if (SHOW_FRACTION.equals(mode)) {
+            ImageDisplay.loadFractionImage(entry.getFraction(plane), intensityDisplay);
+        } else {
+            ImageDisplay.loadAnotatedIntensityImage(summedIntensity, intensityDisplay);
+        }
     }
 
     /**
@@ -155,7 +344,7 @@ public class PluginController {
      */
     public void plotPhasor() {
         if (plt != null && summedIntensity != null) {
-            plt.setIntensityImage(Views.hyperSlice(summedIntensity, 2, 0));
+            plt.setIntensityImage(summedIntensity);
             plt.updatePhasorPlot();
         }
     }
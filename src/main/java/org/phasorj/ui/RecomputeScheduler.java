@@ -0,0 +1,152 @@
+package org.phasorj.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+
+/**
+ * Runs recomputations off the JavaFX thread, newest request wins.
+ * <p>
+ * Requests arriving within the debounce delay are coalesced into one. A request that arrives
+ * while a computation is running marks that computation stale: the computation is told through
+ * its {@link BooleanSupplier} so it can stop early, and its result is never published. Only the
+ * newest computation publishes its result on the JavaFX thread.
+ * </p>
+ */
+public class RecomputeScheduler {
+
+    private final ScheduledExecutorService executor;
+    private final long debounceMillis;
+
+    private final Consumer<BooleanSupplier> compute;
+    private final Runnable publish;
+    private final Consumer<Throwable> onError;
+
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    // guarded by this
+    private ScheduledFuture<?> pending;
+    private final List<Runnable> callbacks = new ArrayList<>();
+
+    /**
+     * @param debounceMillis delay between a request and the start of its computation
+     * @param compute        the computation, given a supplier that turns true once the
+     *                       computation is stale
+     * @param publish        run on the JavaFX thread after a computation that is still current
+     * @param onError        run on the JavaFX thread when a current computation fails
+     */
+    public RecomputeScheduler(long debounceMillis, Consumer<BooleanSupplier> compute,
+                              Runnable publish, Consumer<Throwable> onError) {
+        this.debounceMillis = debounceMillis;
+        this.compute = compute;
+        this.publish = publish;
+        this.onError = onError;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "PhasorJ recompute");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Requests a recomputation.
+     */
+    public void request() {
+        request(null);
+    }
+
+    /**
+     * Requests a recomputation.
+     *
+     * @param onComplete run on the JavaFX thread after the result of this request, or of a
+     *                   newer one that replaced it, has been published
+     */
+    public synchronized void request(Runnable onComplete) {
+        long gen = generation.incrementAndGet();
+        if (onComplete != null) {
+            callbacks.add(onComplete);
+        }
+        if (pending != null && pending.cancel(false)) {
+            queueDepth.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+        queueDepth.incrementAndGet();
+        pending = executor.schedule(() -> run(gen), debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(long gen) {
+        queueDepth.decrementAndGet();
+        BooleanSupplier stale = () -> generation.get() != gen;
+        if (stale.getAsBoolean()) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        try {
+            compute.accept(stale);
+        } catch (Throwable t) {
+            if (!stale.getAsBoolean()) {
+                takeCallbacks();
+                Platform.runLater(() -> onError.accept(t));
+            }
+            return;
+        }
+
+        if (stale.getAsBoolean()) {
+            dropped.incrementAndGet();
+            return;
+        }
+        completed.incrementAndGet();
+        List<Runnable> done = takeCallbacks();
+        Platform.runLater(() -> {
+            publish.run();
+            done.forEach(Runnable::run);
+        });
+    }
+
+    private synchronized List<Runnable> takeCallbacks() {
+        List<Runnable> done = new ArrayList<>(callbacks);
+        callbacks.clear();
+        return done;
+    }
+
+    /**
+     * @return the number of requests made so far
+     */
+    public long getRequestCount() {
+        return generation.get();
+    }
+
+    /**
+     * @return the number of requests waiting to start
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the number of requests that were replaced or cancelled by a newer one
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of computations that published their result
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+}
@@ -25,6 +25,9 @@ import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.util.regex.Pattern;
 
+import net.imglib2.display.ColorTable8;
+import org.scijava.util.ColorRGB;
+
 
 /**
  * Utils.. this file was copied FLIMJ-UI along to support some JavaFx components..not used for now but needed for the FXML to load
@@ -33,7 +36,7 @@ public class Utils {
 	/**
 	 * The LUT for colorizing image (same as the one in TRI2)
 	 */
-	//public static final ColorTable8 LIFETIME_LUT = makeLifetimeLUT();
+	public static final ColorTable8 LIFETIME_LUT = makeLifetimeLUT();
 
 	private static final DecimalFormat sciDf = new DecimalFormat("0.#####E0");
 	private static final DecimalFormat percentDf = new DecimalFormat("0.##%");
@@ -90,21 +93,20 @@ public class Utils {
 			throw new RuntimeException(e);
 		}
 	}
-}
 
-//	/**
-//	 * Generates the lifetime LUT.
-//	 *
-//	 * @return the LUT
-//	 */
-//	private static ColorTable8 makeLifetimeLUT() {
-//		final byte[] r = new byte[256], g = new byte[256], b = new byte[256];
-//		for (int i = 0; i < 256; i++) {
-//			final ColorRGB c = ColorRGB.fromHSVColor((i / 255d * 200d + 20) / 360d, 1d, 1d);
-//			r[i] = (byte) c.getRed();
-//			g[i] = (byte) c.getGreen();
-//			b[i] = (byte) c.getBlue();
-//		}
-//		return new ColorTable8(r, g, b);
-//	}
-//}
+	/**
+	 * Generates the lifetime LUT.
+	 *
+	 * @return the LUT
+	 */
+	private static ColorTable8 makeLifetimeLUT() {
+		final byte[] r = new byte[256], g = new byte[256], b = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			final ColorRGB c = ColorRGB.fromHSVColor((i / 255d * 200d + 20) / 360d, 1d, 1d);
+			r[i] = (byte) c.getRed();
+			g[i] = (byte) c.getGreen();
+			b[i] = (byte) c.getBlue();
+		}
+		return new ColorTable8(r, g, b);
+	}
+}
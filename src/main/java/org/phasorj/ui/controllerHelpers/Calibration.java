@@ -16,8 +16,6 @@ import org.phasorj.ui.controls.NumericTextField;
 import org.scijava.Context;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.ExecutionException;
 
 public class Calibration {
 
@@ -93,30 +91,14 @@ public class Calibration {
         modulation_factor.setMin(Double.MIN_VALUE);
         modulation_factor.setStepSize(0.1);
         modulation_factor.getNumberProperty().addListener((obs, oldVal, newVal) -> {
-            try {
-                processor.setMod_factor(modulation_factor.getNumberProperty().get());
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            } catch (ExecutionException ex) {
-                throw new RuntimeException(ex);
-            } catch (InterruptedException ex) {
-                throw new RuntimeException(ex);
-            }
+            processor.setMod_factor(modulation_factor.getNumberProperty().get());
         });
 
         phase_shift.setMin(-Math.PI);
         phase_shift.setMax(Math.PI);
         phase_shift.setStepSize(0.1);
         phase_shift.getNumberProperty().addListener((obs, oldVal, newVal) -> {
-            try {
-                processor.setPhase_shift(phase_shift.getNumberProperty().get());
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            } catch (ExecutionException ex) {
-                throw new RuntimeException(ex);
-            } catch (InterruptedException ex) {
-                throw new RuntimeException(ex);
-            }
+            processor.setPhase_shift(phase_shift.getNumberProperty().get());
         });
 
         frequency.setMin(0);
@@ -1,5 +1,7 @@
 package org.phasorj.ui.controllerHelpers;
 
+import java.util.Arrays;
+
 import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.geometry.Bounds;
@@ -10,17 +12,20 @@ import net.imagej.Dataset;
 import net.imagej.ImgPlus;
 import net.imagej.axis.Axes;
 import net.imagej.display.ColorTables;
-import net.imagej.ops.OpService;
 import net.imglib2.*;
 import net.imglib2.converter.Converters;
+import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.converter.RealLUTConverter;
 import net.imglib2.display.screenimage.awt.ARGBScreenImage;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
+import org.phasorj.ui.Utils;
+import org.phasorj.ui.phasor.DecayCube;
 
 
 /**
@@ -54,6 +59,16 @@ public class ImageDisplay
     public static final RealLUTConverter<FloatType> INTENSITY_CONV =
             new RealLUTConverter<>(0, 0, ColorTables.GRAYS);
 
+    public static final RealLUTConverter<FloatType> LIFETIME_CONV =
+            new RealLUTConverter<>(0, 0, Utils.LIFETIME_LUT);
+
+    public static final RealLUTConverter<FloatType> FRACTION_CONV =
+            new RealLUTConverter<>(0, 1, Utils.LIFETIME_LUT);
+
+    // fraction of the lifetimes below the top of the lifetime LUT, so that a few pixels with
+    // near-zero G do not compress the scale
+    private static final double LIFETIME_RANGE_QUANTILE = 0.99;
+
     public ImageDisplay(ImageView view) {
         this.view = view;
         ChangeListener<Bounds> bChangeListener = (obs, oldVal, newVal) -> Platform.runLater(() -> {
@@ -158,60 +173,96 @@ public class ImageDisplay
 
 
     /**
-     * //Adapted from  flimlib/flimj/ParamEstimator - calciMap
-     *
-     * @param data
-     * @param lifetimeAxis
-     * @return
+     * @param dataset the FLIM Dataset
+     * @return direct access to the decays of the first plane, see {@link #flimCube(Dataset, int)}
      */
+    public static DecayCube flimCube(Dataset dataset) {
+        return flimCube(dataset, 0);
+    }
 
-    //TODO: This is slow,try scijava ops sum function?
-    public static Img<FloatType> sumIntensity(RandomAccessibleInterval<FloatType> data, int lifetimeAxis) {
-        // Get dimensions of input data
-        int numDims = data.numDimensions();
-        long[] dims = new long[numDims];
-        data.dimensions(dims);
-        dims[lifetimeAxis] = 1;
-        Img<FloatType> intensityMap = ArrayImgs.floats(dims);
-
-        RandomAccess<FloatType> inRA = data.randomAccess();
-        RandomAccess<FloatType> outRA = intensityMap.randomAccess();
-
-        long[] pos = new long[numDims];
-        long lifetimeSize = data.dimension(lifetimeAxis);
-
-        for (long y = 0; y < dims[1]; y++) {
-            for (long x = 0; x < dims[0]; x++) {
-                pos[0] = x;
-                pos[1] = y;
-                double sum = 0;
-                for (int t = 0; t < lifetimeSize; t++) {
-                    pos[lifetimeAxis] = t;
-                    inRA.setPosition(pos);
-                    sum += inRA.get().getRealDouble();
-                }
-
-                pos[lifetimeAxis] = 0;
-                outRA.setPosition(pos);
-                outRA.get().setReal(sum);
-            }
+    /**
+     * @param dataset the FLIM Dataset
+     * @param plane   index of the plane, see {@link #flimPlaneCount}
+     * @return direct access to the decays of the plane when the dataset is an ArrayImg or
+     * PlanarImg of FloatType, UnsignedShortType or UnsignedByteType, otherwise null; see
+     * {@link #flimView}
+     */
+    public static DecayCube flimCube(Dataset dataset, int plane) {
+        int[] axes = flimAxes(dataset);
+        return DecayCube.of(dataset.getImgPlus().getImg(), axes[0], axes[1], axes[2],
+                flimPlanePosition(dataset, plane));
+    }
+
+    /**
+     * @param dataset the FLIM Dataset
+     * @return the cell size of the dataset along X, Y and lifetime when it is a cell image, such
+     * as the images SCIFIO opens lazily, otherwise null
+     */
+    public static int[] flimCellSize(Dataset dataset) {
+        Object img = dataset.getImgPlus().getImg();
+        if (!(img instanceof AbstractCellImg)) {
+            return null;
         }
+        CellGrid grid = ((AbstractCellImg<?, ?, ?, ?>) img).getCellGrid();
+        int[] axes = flimAxes(dataset);
+        return new int[]{grid.cellDimension(axes[0]), grid.cellDimension(axes[1]), grid.cellDimension(axes[2])};
+    }
 
-        return intensityMap;
+    /**
+     * @param dataset the FLIM Dataset
+     * @return drops the cells loaded so far from the cache of the dataset when it is a
+     * {@link CachedCellImg}, as SCIFIO's cell images are; does nothing for other images
+     */
+    public static Runnable flimCellRelease(Dataset dataset) {
+        Object img = dataset.getImgPlus().getImg();
+        if (img instanceof CachedCellImg) {
+            return ((CachedCellImg<?, ?>) img).getCache()::invalidateAll;
+        }
+        return () -> {};
     }
 
+    /**
+     * @param dataset the FLIM Dataset
+     * @return the number of X, Y, lifetime planes in the dataset: the product of the sizes of
+     * all other axes, such as Z, channel or a time series
+     */
+    public static int flimPlaneCount(Dataset dataset) {
+        int[] axes = flimAxes(dataset);
+        long count = 1;
+        for (int d = 0; d < dataset.numDimensions(); d++) {
+            if (d == axes[0] || d == axes[1] || d == axes[2]) continue;
+            count *= dataset.dimension(d);
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many planes in " + dataset.getName() + ": " + count);
+        }
+        return (int) count;
+    }
 
     /**
-     * @param dataset
-     * Process the input Dataset and return a 3D RAI<FloatType>
-     *
+     * @return the position of a plane in the dataset, counting the axes other than X, Y and
+     * lifetime with the first one fastest. X, Y and lifetime are at 0.
      */
-    public static <T extends RealType<T>> RandomAccessibleInterval<FloatType> processDataset(Dataset dataset) {
-        @SuppressWarnings("unchecked")
-        ImgPlus<T> imp = (ImgPlus<T>) dataset.getImgPlus();
+    private static long[] flimPlanePosition(Dataset dataset, int plane) {
+        int count = flimPlaneCount(dataset);
+        if (plane < 0 || plane >= count) {
+            throw new IllegalArgumentException("Plane " + plane + " out of range [0, " + count + ")");
+        }
+        int[] axes = flimAxes(dataset);
+        long[] position = new long[dataset.numDimensions()];
+        long rest = plane;
+        for (int d = 0; d < position.length; d++) {
+            if (d == axes[0] || d == axes[1] || d == axes[2]) continue;
+            position[d] = rest % dataset.dimension(d);
+            rest /= dataset.dimension(d);
+        }
+        return position;
+    }
 
-        RandomAccessibleInterval<T> img = imp;
-        final OpService ops = dataset.context().service(OpService.class);
+    /**
+     * @return the X, Y and lifetime axis indices of the dataset
+     */
+    private static int[] flimAxes(Dataset dataset) {
         final int xAxis = dataset.dimensionIndex(Axes.X);
         final int yAxis = dataset.dimensionIndex(Axes.Y);
 
@@ -221,8 +272,34 @@ public class ImageDisplay
 
         int ltAxis = dataset.dimensionIndex(Axes.TIME);
         if (ltAxis < 0) ltAxis = 2;
+        return new int[]{xAxis, yAxis, ltAxis};
+    }
+
+    /**
+     * @param dataset the FLIM Dataset
+     * @return a 3D view of the first plane of the dataset, see {@link #flimView(Dataset, int)}
+     */
+    public static <T extends RealType<T>> RandomAccessibleInterval<T> flimView(Dataset dataset) {
+        return flimView(dataset, 0);
+    }
+
+    /**
+     * @param dataset the FLIM Dataset
+     * @param plane   index of the plane, see {@link #flimPlaneCount}
+     * @return a 3D view of the dataset with X, Y and lifetime on axes 0, 1 and 2. Other axes are
+     * sliced at the position of the plane.
+     */
+    public static <T extends RealType<T>> RandomAccessibleInterval<T> flimView(Dataset dataset, int plane) {
+        @SuppressWarnings("unchecked")
+        ImgPlus<T> imp = (ImgPlus<T>) dataset.getImgPlus();
+
+        RandomAccessibleInterval<T> img = imp;
+        int[] axes = flimAxes(dataset);
+        final int xAxis = axes[0];
+        final int yAxis = axes[1];
+        int ltAxis = axes[2];
 
-        Localizable position = new Point(dataset.numDimensions());
+        Localizable position = new Point(flimPlanePosition(dataset, plane));
 
         for (int d = imp.numDimensions() - 1; d >= 0; --d) {
             if (d == xAxis || d == yAxis || d == ltAxis) continue;
@@ -234,9 +311,7 @@ public class ImageDisplay
             throw new RuntimeException("Unexpected FLIM image dimensionality: " + img.numDimensions());
         }
 
-        IterableInterval<T> iterable = Views.iterable(img);
-        return ops.convert().float32(iterable);
-
+        return ltAxis == 2 ? img : Views.moveAxis(img, ltAxis, 2);
     }
 
     /**
@@ -257,6 +332,39 @@ public class ImageDisplay
                 (srcRA, lutedRA) -> lutedRA.get());
     }
 
+    /**
+     * Shows a lifetime map with the lifetime LUT, from 0 to the 99th percentile of the finite
+     * lifetimes. Pixels without a lifetime are black.
+     *
+     * @param lifetime the lifetime map in ns
+     */
+    public static void loadLifetimeImage(final RandomAccessibleInterval<FloatType> lifetime, ImageDisplay display) {
+        float[] finite = new float[(int) Intervals.numElements(lifetime)];
+        int n = 0;
+        for (FloatType val : Views.iterable(lifetime)) {
+            if (Float.isFinite(val.get())) finite[n++] = val.get();
+        }
+        Arrays.sort(finite, 0, n);
+        double max = n == 0 ? 0 : finite[(int) ((n - 1) * LIFETIME_RANGE_QUANTILE)];
+        ImageDisplay.LIFETIME_CONV.setMax(max > 0 ? max : 1);
+
+        final ARGBType black = new ARGBType(ARGBType.rgba(0, 0, 0, 255));
+        display.setImage(lifetime, ImageDisplay.LIFETIME_CONV,
+                (srcRA, lutedRA) -> Float.isFinite(srcRA.get().get()) ? lutedRA.get() : black);
+    }
+
+    /**
+     * Shows a component fraction map with the lifetime LUT, from 0 to 1. Pixels without a
+     * fraction are black.
+     *
+     * @param fraction the fraction of the first component
+     */
+    public static void loadFractionImage(final RandomAccessibleInterval<FloatType> fraction, ImageDisplay display) {
+        final ARGBType black = new ARGBType(ARGBType.rgba(0, 0, 0, 255));
+        display.setImage(fraction, ImageDisplay.FRACTION_CONV,
+                (srcRA, lutedRA) -> Float.isNaN(srcRA.get().get()) ? black : lutedRA.get());
+    }
+
     /**
      * Reloads the image only if the ratio between {@link #pixScale} and {@link #lastReloadPixScale}
      * or the inverse is no less than RELOAD_THR because small pixScale steps (e.g. during window
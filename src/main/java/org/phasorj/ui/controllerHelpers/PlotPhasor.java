@@ -1,5 +1,6 @@
 package org.phasorj.ui.controllerHelpers;
 
+import java.util.Collection;
 import java.util.List;
 
 import javafx.scene.canvas.Canvas;
@@ -26,6 +27,7 @@ public class PlotPhasor {
     private final Canvas overlayCanvas;
     private final StackPane plotPane;
     private final ImageDisplay imageDisplay;
+    private final PhasorProcessor processor;
 
     private RandomAccessibleInterval<FloatType> intensity;
 
@@ -36,6 +38,7 @@ public class PlotPhasor {
         this.plotPane = plotPane;
         this.imageDisplay = imageDisplay;
         this.intensity = intensity;
+        this.processor = processor;
 
         // Initialize components
         this.transform = new PlotTransform();
@@ -72,12 +75,57 @@ public class PlotPhasor {
         plotPane.getChildren().addAll(plotCanvas, overlayCanvas);
 
         // Initial draw
-        plotRenderer.redrawAll();
+        plotRenderer.invalidateAll();
+    }
+
+    /**
+     * Show another Z, channel or time plane of the entries, without recomputing them.
+     */
+    public void setPlane(int plane) {
+        dataManager.setPlane(plane);
+        plotRenderer.invalidatePlot();
+    }
+
+    public int getPlane() {
+        return dataManager.getPlane();
+    }
+
+    /**
+     * Add the points of a new entry to the plot without collecting the others again.
+     */
+    public void addEntry(DataClass entry) {
+        dataManager.appendData(entry);
+        plotRenderer.invalidatePlot();
+    }
+
+    /**
+     * Show the recomputed G and S of some entries, collecting the points of those entries only.
+     */
+    public void updateEntries(Collection<DataClass> entries) {
+        dataManager.updateEntries(entries);
+        plotRenderer.invalidatePlot();
+    }
+
+    /**
+     * Switch between drawing every point and drawing the density of the points.
+     */
+    public void setPointMode(PlotRenderer.PointMode mode) {
+        plotRenderer.setPointMode(mode);
+        plotRenderer.invalidatePlot();
     }
 
     public void updatePhasorPlot() {
         updatePhasorData();
-        plotRenderer.redrawPlot();
+        plotRenderer.setFractionComponents(processor.getFractionComponent(0), processor.getFractionComponent(1));
+        plotRenderer.invalidatePlot();
+    }
+
+    /**
+     * Show the current unmixing components without collecting the points again.
+     */
+    public void updateFractionComponents() {
+        plotRenderer.setFractionComponents(processor.getFractionComponent(0), processor.getFractionComponent(1));
+        plotRenderer.invalidateFractionLine();
     }
 
     private void updatePhasorData() {
@@ -0,0 +1,269 @@
+package org.phasorj.ui.controllerHelpers.plot;
+
+import java.util.Arrays;
+
+/**
+ * Phasor histograms at every zoom level, binned once per data update so that zooming and
+ * panning in the density modes resample bins instead of binning all points again.
+ * <p>
+ * The finest level has bins of {@code binPixels} canvas pixels at {@link PlotTransform#MAX_SCALE},
+ * capped at {@link #MAX_BINS_PER_SIDE} bins per side, over the bounding box of the points inside
+ * the plot domain, see {@link PlotTransform#DOMAIN_MIN_G}; outliers beyond it are not binned, so
+ * they cannot spread the bins over empty space. Every coarser level merges 2 x 2 bins of the one
+ * below, up to a single bin. Levels are stored as 64 x 64 tiles that are only allocated where
+ * there are points, quadtree fashion, so the fine levels cost memory in proportion to the area
+ * the phasor cloud covers.
+ * </p>
+ * <p>
+ * A view reads the coarsest level whose bins are no larger than its own, and every view bin sums
+ * the level bins it overlaps, a handful of them, weighted by the overlapping area. The counts of
+ * a level bin are split among the view bins it overlaps, so the view shows counts at its own
+ * resolution without the blocks of reading a coarser level. The only error is that points are
+ * taken as spread evenly over their level bin, at most half a view bin across. Only when zoomed in
+ * beyond the finest level do view bins read the one bin under their center.
+ * </p>
+ */
+class HistogramPyramid {
+
+    private static final int TILE_BITS = 6;
+    private static final int TILE_SIZE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    private static final int MAX_BINS_PER_SIDE = 4096;
+
+    private static final class Level {
+        final int binsX, binsY, tilesX, tilesY;
+        // bin size in data units
+        final double binG, binS;
+        // tiles in row-major order, null where there are no points
+        final int[][] tiles;
+
+        Level(int binsX, int binsY, double binG, double binS) {
+            this.binsX = binsX;
+            this.binsY = binsY;
+            this.binG = binG;
+            this.binS = binS;
+            this.tilesX = (binsX + TILE_MASK) >> TILE_BITS;
+            this.tilesY = (binsY + TILE_MASK) >> TILE_BITS;
+            this.tiles = new int[tilesX * tilesY][];
+        }
+
+        void add(int x, int y, int count) {
+            int t = (y >> TILE_BITS) * tilesX + (x >> TILE_BITS);
+            if (tiles[t] == null) {
+                tiles[t] = new int[TILE_SIZE * TILE_SIZE];
+            }
+            tiles[t][(y & TILE_MASK) << TILE_BITS | (x & TILE_MASK)] += count;
+        }
+
+        int get(int x, int y) {
+            int[] tile = tiles[(y >> TILE_BITS) * tilesX + (x >> TILE_BITS)];
+            return tile == null ? 0 : tile[(y & TILE_MASK) << TILE_BITS | (x & TILE_MASK)];
+        }
+    }
+
+    // finest first, empty when there are no points
+    private Level[] levels = new Level[0];
+    private double minG, minS;
+    // data version the levels were built from
+    private long version = -1;
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Bin the points into all levels.
+     *
+     * @param g         G of the points
+     * @param s         S of the points
+     * @param size      number of points
+     * @param binPixels canvas pixels per bin edge of the finest level at the largest zoom
+     * @param version   data version of the points
+     */
+    void build(float[] g, float[] s, int size, int binPixels, long version) {
+        this.version = version;
+        double loG = Double.POSITIVE_INFINITY, hiG = Double.NEGATIVE_INFINITY;
+        double loS = Double.POSITIVE_INFINITY, hiS = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            if (binned(g[i], s[i])) {
+                loG = Math.min(loG, g[i]);
+                hiG = Math.max(hiG, g[i]);
+                loS = Math.min(loS, s[i]);
+                hiS = Math.max(hiS, s[i]);
+            }
+        }
+        if (loG > hiG) {
+            levels = new Level[0];
+            return;
+        }
+        minG = loG;
+        minS = loS;
+
+        // bins of binPixels at the largest zoom, unless there would be too many
+        double binG = Math.max(binPixels / (PlotTransform.PLOT_WIDTH * PlotTransform.MAX_SCALE),
+                (hiG - loG) / (MAX_BINS_PER_SIDE - 1));
+        double binS = Math.max(binPixels / (PlotTransform.PLOT_HEIGHT / 0.6 * PlotTransform.MAX_SCALE),
+                (hiS - loS) / (MAX_BINS_PER_SIDE - 1));
+        int binsX = (int) ((hiG - loG) / binG) + 1;
+        int binsY = (int) ((hiS - loS) / binS) + 1;
+
+        int count = 1;
+        for (int x = binsX, y = binsY; x > 1 || y > 1; x = (x + 1) / 2, y = (y + 1) / 2) {
+            count++;
+        }
+        levels = new Level[count];
+        for (int l = 0; l < count; l++) {
+            levels[l] = new Level(binsX, binsY, binG, binS);
+            binsX = (binsX + 1) / 2;
+            binsY = (binsY + 1) / 2;
+            binG *= 2;
+            binS *= 2;
+        }
+
+        Level finest = levels[0];
+        double invG = 1 / finest.binG;
+        double invS = 1 / finest.binS;
+        for (int i = 0; i < size; i++) {
+            if (binned(g[i], s[i])) {
+                int x = Math.min(finest.binsX - 1, (int) ((g[i] - minG) * invG));
+                int y = Math.min(finest.binsY - 1, (int) ((s[i] - minS) * invS));
+                finest.add(x, y, 1);
+            }
+        }
+        for (int l = 1; l < count; l++) {
+            merge(levels[l - 1], levels[l]);
+        }
+    }
+
+    private static boolean binned(float g, float s) {
+        // zero points are skipped when drawing; the domain test also rejects NaN
+        return (g != 0 || s != 0)
+                && g >= PlotTransform.DOMAIN_MIN_G && g <= PlotTransform.DOMAIN_MAX_G
+                && s >= PlotTransform.DOMAIN_MIN_S && s <= PlotTransform.DOMAIN_MAX_S;
+    }
+
+    /**
+     * Add every 2 x 2 bins of the finer level into one bin of the coarser one.
+     */
+    private static void merge(Level finer, Level coarser) {
+        for (int t = 0; t < finer.tiles.length; t++) {
+            int[] tile = finer.tiles[t];
+            if (tile == null) {
+                continue;
+            }
+            int x0 = (t % finer.tilesX) << TILE_BITS;
+            int y0 = (t / finer.tilesX) << TILE_BITS;
+            for (int i = 0; i < tile.length; i++) {
+                if (tile[i] != 0) {
+                    coarser.add((x0 + (i & TILE_MASK)) >> 1, (y0 + (i >> TILE_BITS)) >> 1, tile[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fill a histogram of the view from the level that matches its zoom.
+     *
+     * @param scale     zoom of {@link PlotTransform}
+     * @param offsetX   horizontal pan of {@link PlotTransform}
+     * @param offsetY   vertical pan of {@link PlotTransform}
+     * @param width     view bins per row
+     * @param height    view bins per column
+     * @param binPixels canvas pixels per view bin edge
+     * @param counts    receives the counts, row by row
+     * @return the largest count
+     */
+    int sample(double scale, double offsetX, double offsetY, int width, int height, int binPixels,
+               int[] counts) {
+        if (levels.length == 0) {
+            Arrays.fill(counts, 0, width * height, 0);
+            return 0;
+        }
+        // data size of a view bin
+        double viewBinG = binPixels / (PlotTransform.PLOT_WIDTH * scale);
+        double viewBinS = binPixels / (PlotTransform.PLOT_HEIGHT / 0.6 * scale);
+        int l = 0;
+        while (l + 1 < levels.length && levels[l + 1].binG <= viewBinG && levels[l + 1].binS <= viewBinS) {
+            l++;
+        }
+        Level level = levels[l];
+        double invG = 1 / level.binG;
+        double invS = 1 / level.binS;
+
+        // data coordinates of the top left corner of view bin (0, 0), from PlotTransform.screenToData
+        double g0 = ((-offsetX) / scale - PlotTransform.PLOT_LEFT) / PlotTransform.PLOT_WIDTH;
+        double s0 = (PlotTransform.PLOT_BOTTOM - (-offsetY) / scale) / PlotTransform.PLOT_HEIGHT * 0.6;
+        // level bin coordinates of that corner, and the size of a view bin in level bins
+        double x0 = (g0 - minG) * invG;
+        double y0 = (s0 - minS) * invS;
+        double dx = viewBinG * invG;
+        double dy = viewBinS * invS;
+
+        if (level.binG > viewBinG || level.binS > viewBinS) {
+            return sampleCenters(level, x0 + dx / 2, y0 - dy / 2, dx, dy, width, height, counts);
+        }
+
+        int max = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            // S decreases down the view
+            double top = y0 - y * dy;
+            double bottom = top - dy;
+            int binY0 = (int) Math.max(0, Math.floor(bottom));
+            int binY1 = (int) Math.min(level.binsY, Math.ceil(top));
+            for (int x = 0; x < width; x++) {
+                double left = x0 + x * dx;
+                double right = left + dx;
+                int binX0 = (int) Math.max(0, Math.floor(left));
+                int binX1 = (int) Math.min(level.binsX, Math.ceil(right));
+                double c = 0;
+                for (int binY = binY0; binY < binY1; binY++) {
+                    double wy = Math.min(top, binY + 1) - Math.max(bottom, binY);
+                    for (int binX = binX0; binX < binX1; binX++) {
+                        int n = level.get(binX, binY);
+                        if (n != 0) {
+                            c += n * wy * (Math.min(right, binX + 1) - Math.max(left, binX));
+                        }
+                    }
+                }
+                int rounded = (int) Math.round(c);
+                counts[row + x] = rounded;
+                if (rounded > max) {
+                    max = rounded;
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Fill the view from a level coarser than its bins, every view bin reading the level bin under
+     * its center.
+     *
+     * @param cx level X coordinate of the center of view bin (0, 0)
+     * @param cy level Y coordinate of the center of view bin (0, 0)
+     */
+    private static int sampleCenters(Level level, double cx, double cy, double dx, double dy,
+                                     int width, int height, int[] counts) {
+        int max = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            double by = cy - y * dy;
+            if (!(by >= 0 && by < level.binsY)) {
+                Arrays.fill(counts, row, row + width, 0);
+                continue;
+            }
+            int binY = (int) by;
+            for (int x = 0; x < width; x++) {
+                double bx = cx + x * dx;
+                int c = bx >= 0 && bx < level.binsX ? level.get((int) bx, binY) : 0;
+                counts[row + x] = c;
+                if (c > max) {
+                    max = c;
+                }
+            }
+        }
+        return max;
+    }
+}
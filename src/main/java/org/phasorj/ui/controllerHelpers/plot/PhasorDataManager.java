@@ -1,92 +1,293 @@
 package org.phasorj.ui.controllerHelpers.plot;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
-import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
-import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.real.FloatType;
 import org.phasorj.ui.DataClass;
 import org.phasorj.ui.PhasorProcessor;
+import org.phasorj.ui.phasor.IntensityMask;
 
 /**
  * Manages phasor data points and their spatial coordinates.
+ * <p>
+ * Points are stored as parallel primitive arrays (G, S, image x, image y and the index of the
+ * entry they came from), so collecting, drawing and querying the points allocate nothing per
+ * point. Read the points through {@link #size()} and the indexed getters.
+ * </p>
+ * <p>
+ * G and S are read off the JavaFX thread by the plot rasterizer, so they are never rewritten:
+ * {@link #updateData()} collects into new arrays, {@link #updateEntries} rewrites the points of
+ * some entries in copies and {@link #appendData} only writes past the end. Arrays obtained before
+ * stay valid up to the size at that time.
+ * </p>
+ * <p>
+ * Cursor queries go through a {@link PointGrid} over the points, rebuilt whenever the points
+ * change rather than at the next hover, so hovering only tests the points near the cursor and
+ * never pauses to index them.
+ * </p>
  */
 
 public class PhasorDataManager {
 
     private final PhasorProcessor processor;
-    private final List<PhasorPoint> phasorPoints = new ArrayList<>();
+
+    // the points, valid up to size
+    private float[] g = new float[0];
+    private float[] s = new float[0];
+    private int[] x = new int[0];
+    private int[] y = new int[0];
+    private int[] entryIds = new int[0];
+    private int size;
+    // changes whenever the points do
+    private long version;
+    // the entries collected, in the order of their ids, and the index of the first point of each
+    private final List<DataClass> collected = new ArrayList<>();
+    private int[] firstPoints = new int[0];
+
+    // index of the points for cursor queries
+    private final PointGrid grid = new PointGrid();
+
+    // plane shown of entries with several Z, channel or time planes
+    private int plane = 0;
 
     /**
-     * Data structure for phasor points with spatial information.
+     * Receives the index of a point.
      */
-    public static class PhasorPoint {
-        public final float g, s;
-        public final int imageX, imageY;
-
-        public PhasorPoint(float g, float s, int imageX, int imageY) {
-            this.g = g;
-            this.s = s;
-            this.imageX = imageX;
-            this.imageY = imageY;
-        }
+    @FunctionalInterface
+    public interface PointVisitor {
+        void visit(int index);
     }
 
     public PhasorDataManager(PhasorProcessor processor) {
         this.processor = processor;
     }
 
-    public void updateData() {
-        phasorPoints.clear();
-
-        for (DataClass data : processor.getEntries()) {
-            RandomAccessibleInterval<FloatType> gData = data.getGData();
-            RandomAccessibleInterval<FloatType> sData = data.getSData();
+    public int getPlane() {
+        return plane;
+    }
 
-            Cursor<FloatType> gCursor = gData.cursor();
-            RandomAccess<FloatType> sAccess = sData.randomAccess();
+    /**
+     * Show another plane of the entries. Every plane was computed when the entry was added, so
+     * only the points are collected again.
+     *
+     * @param plane the plane index, entries with fewer planes show their last one
+     */
+    public void setPlane(int plane) {
+        if (plane < 0) {
+            throw new IllegalArgumentException("Plane must not be negative, got " + plane);
+        }
+        this.plane = plane;
+        updateData();
+    }
 
-            while (gCursor.hasNext()) {
-                gCursor.fwd();
-                sAccess.setPosition(gCursor);
+    /**
+     * @return the plane of the entry that is shown
+     */
+    public int planeOf(DataClass data) {
+        return Math.min(plane, data.getPlaneCount() - 1);
+    }
 
-                float g = gCursor.get().getRealFloat();
-                float s = sAccess.get().getRealFloat();
+    /**
+     * Collect the phasor points of the shown plane of every entry, skipping pixels outside the
+     * intensity mask.
+     */
+    public void updateData() {
+        List<DataClass> entries = processor.getEntries();
+        long total = 0;
+        for (DataClass data : entries) {
+            total += data.getMask(planeOf(data)).cardinality();
+        }
+        size = 0;
+        collected.clear();
+        version++;
+        g = new float[0];
+        s = new float[0];
+        ensureCapacity(total);
+        for (DataClass data : entries) {
+            collect(data);
+        }
+        grid.build(g, s, size);
+    }
 
-                // Get spatial coordinates
-                int imageX = gCursor.getIntPosition(0);
-                int imageY = gCursor.getIntPosition(1);
+    /**
+     * Add the points of one more entry to those collected, e.g. of a file that just arrived in
+     * a watched folder. An entry that was added to the processor before the last
+     * {@link #updateData()} was collected by it already and is skipped.
+     *
+     * @return the index of the first point added, the points of the entry running up to
+     * {@link #size()}; -1 if the entry was collected already
+     */
+    public int appendData(DataClass data) {
+        if (collected.contains(data)) {
+            return -1;
+        }
+        int first = size;
+        version++;
+        ensureCapacity((long) size + data.getMask(planeOf(data)).cardinality());
+        collect(data);
+        grid.build(g, s, size);
+        return first;
+    }
 
-                phasorPoints.add(new PhasorPoint(g, s, imageX, imageY));
+    /**
+     * Collect again the points of entries whose G and S were recomputed, leaving the points of
+     * the others as they are. Entries not collected yet are skipped, they are added by
+     * {@link #appendData}. If an entry has a different number of points now, everything is
+     * collected again.
+     */
+    public void updateEntries(Collection<DataClass> entries) {
+        float[] newG = null, newS = null;
+        for (DataClass data : entries) {
+            int id = collected.indexOf(data);
+            if (id < 0) {
+                continue;
+            }
+            int first = firstPoints[id];
+            int end = id + 1 < collected.size() ? firstPoints[id + 1] : size;
+            if (data.getMask(planeOf(data)).cardinality() != end - first) {
+                updateData();
+                return;
             }
+            if (newG == null) {
+                newG = g.clone();
+                newS = s.clone();
+            }
+            read(data, newG, newS, first);
+        }
+        if (newG != null) {
+            g = newG;
+            s = newS;
+            version++;
+            grid.build(g, s, size);
         }
     }
 
-    public List<PhasorPoint> getPhasorPoints() {
-        return new ArrayList<>(phasorPoints);
+    private void ensureCapacity(long capacity) {
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many phasor points: " + capacity);
+        }
+        if (capacity > g.length) {
+            g = Arrays.copyOf(g, grownLength(g.length, capacity));
+            s = Arrays.copyOf(s, g.length);
+        }
+        if (capacity > x.length) {
+            int n = grownLength(x.length, capacity);
+            x = Arrays.copyOf(x, n);
+            y = Arrays.copyOf(y, n);
+            entryIds = Arrays.copyOf(entryIds, n);
+        }
+    }
+
+    private static int grownLength(int length, long capacity) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, 2L * length));
     }
 
     /**
-     * Find points inside a circular cursor area.
+     * Append the points of an entry; the arrays must have room for them.
      */
-    public List<int[]> getPointsInsideCursor(double cursorDataX, double cursorDataY,
-                                             double radiusDataX, double radiusDataY) {
-        List<int[]> imageCoords = new ArrayList<>();
-
-        for (PhasorPoint point : phasorPoints) {
-            // Calculate distance from cursor center to point in data coordinates
-            double deltaX = (point.g - cursorDataX) / radiusDataX;
-            double deltaY = (point.s - cursorDataY) / radiusDataY;
-            double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
-
-            // Point is inside if distance is less than 1 (normalized radius)
-            if (distance <= 1.0) {
-                imageCoords.add(new int[]{point.imageX, point.imageY});
+    private void collect(DataClass data) {
+        int id = collected.size();
+        collected.add(data);
+        if (id >= firstPoints.length) {
+            firstPoints = Arrays.copyOf(firstPoints, Math.max(8, 2 * firstPoints.length));
+        }
+        firstPoints[id] = size;
+        IntensityMask mask = data.getMask(planeOf(data));
+        int width = data.getWidth();
+        for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+            x[size] = i % width;
+            y[size] = i / width;
+            entryIds[size] = id;
+            size++;
+        }
+        read(data, g, s, firstPoints[id]);
+    }
+
+    /**
+     * Read G and S of the pixels of an entry inside the intensity mask into the arrays, from
+     * index {@code first} on, holding the published phasor so that it is not rewritten meanwhile.
+     */
+    private void read(DataClass data, float[] gOut, float[] sOut, int first) {
+        int p = planeOf(data);
+        try (DataClass.HeldPhasor phasor = data.holdPhasor()) {
+            RandomAccess<FloatType> gAccess = phasor.getG(p).randomAccess();
+            RandomAccess<FloatType> sAccess = phasor.getS(p).randomAccess();
+            IntensityMask mask = data.getMask(p);
+            int width = data.getWidth();
+            int index = first;
+            for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+                gAccess.setPosition(i % width, 0);
+                gAccess.setPosition(i / width, 1);
+                sAccess.setPosition(gAccess);
+                gOut[index] = gAccess.get().getRealFloat();
+                sOut[index] = sAccess.get().getRealFloat();
+                index++;
             }
         }
+    }
+
+    /**
+     * @return a number that changes whenever the points do
+     */
+    long getVersion() {
+        return version;
+    }
 
-        return imageCoords;
+    /**
+     * @return the number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return G of the points, valid up to {@link #size()} and never rewritten below it
+     */
+    float[] getGArray() {
+        return g;
+    }
+
+    /**
+     * @return S of the points, valid up to {@link #size()} and never rewritten below it
+     */
+    float[] getSArray() {
+        return s;
+    }
+
+    public float getG(int index) {
+        return g[index];
+    }
+
+    public float getS(int index) {
+        return s[index];
+    }
+
+    public int getImageX(int index) {
+        return x[index];
+    }
+
+    public int getImageY(int index) {
+        return y[index];
+    }
+
+    /**
+     * @return the position of the point's entry in {@link PhasorProcessor#getEntries()}
+     */
+    public int getEntryId(int index) {
+        return entryIds[index];
+    }
+
+    /**
+     * Visit the points inside an elliptical cursor area, in no particular order.
+     *
+     * @return the number of points visited
+     */
+    public int forEachPointInsideCursor(double cursorDataX, double cursorDataY,
+                                        double radiusDataX, double radiusDataY, PointVisitor visitor) {
+        return grid.forEachInside(cursorDataX, cursorDataY, radiusDataX, radiusDataY, visitor);
     }
-}
\ No newline at end of file
+}
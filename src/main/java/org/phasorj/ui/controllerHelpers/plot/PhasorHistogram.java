@@ -0,0 +1,88 @@
+package org.phasorj.ui.controllerHelpers.plot;
+
+import org.phasorj.ui.Utils;
+
+/**
+ * 2D histogram of the phasor points over the visible part of the plot, with one bin per
+ * {@code binPixels} x {@code binPixels} block of canvas pixels, colored into an ARGB image.
+ * <p>
+ * The counts are read from a {@link HistogramPyramid} and coloring is one pass over the bins, so
+ * the cost depends on the canvas size and not on the number of points. The arrays are reused
+ * between redraws.
+ * </p>
+ */
+class PhasorHistogram {
+
+    // density colors, from blue for few points to red for many, reversing the lifetime LUT
+    private static final int[] COLORS = new int[256];
+
+    static {
+        for (int i = 0; i < COLORS.length; i++) {
+            int lut = COLORS.length - 1 - i;
+            COLORS[i] = 0xFF000000 | (Utils.LIFETIME_LUT.get(0, lut) << 16)
+                    | (Utils.LIFETIME_LUT.get(1, lut) << 8) | Utils.LIFETIME_LUT.get(2, lut);
+        }
+    }
+
+    private int width, height;
+    private int[] counts = new int[0];
+    private int[] pixels = new int[0];
+    private int max;
+
+    /**
+     * Fill the bins of the view from the pyramid.
+     *
+     * @param scale     zoom of {@link PlotTransform}
+     * @param offsetX   horizontal pan of {@link PlotTransform}
+     * @param offsetY   vertical pan of {@link PlotTransform}
+     * @param width     bins per row
+     * @param height    bins per column
+     * @param binPixels canvas pixels per bin edge
+     */
+    void sample(HistogramPyramid pyramid, double scale, double offsetX, double offsetY,
+                int width, int height, int binPixels) {
+        this.width = width;
+        this.height = height;
+        int bins = width * height;
+        if (counts.length < bins) {
+            counts = new int[bins];
+            pixels = new int[bins];
+        }
+        max = pyramid.sample(scale, offsetX, offsetY, width, height, binPixels, counts);
+    }
+
+    /**
+     * Color the bins, leaving empty bins transparent.
+     *
+     * @param log whether the colors follow the logarithm of the counts
+     * @return the colors, non-premultiplied ARGB, row by row
+     */
+    int[] colorize(boolean log) {
+        int bins = width * height;
+        double norm = (COLORS.length - 1) / (log ? Math.log1p(max) : max);
+        for (int i = 0; i < bins; i++) {
+            int c = counts[i];
+            if (c == 0) {
+                pixels[i] = 0;
+            } else {
+                pixels[i] = COLORS[(int) ((log ? Math.log1p(c) : c) * norm)];
+            }
+        }
+        return pixels;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the count of the fullest bin
+     */
+    int getMax() {
+        return max;
+    }
+}
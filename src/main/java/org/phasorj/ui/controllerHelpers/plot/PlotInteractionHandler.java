@@ -1,6 +1,6 @@
 package org.phasorj.ui.controllerHelpers.plot;
 
-import java.util.List;
+import java.util.BitSet;
 
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
@@ -61,6 +61,10 @@ public class PlotInteractionHandler {
     private Canvas highlightOverlay;
     private boolean highlightOverlaySetup = false;
 
+    // cursor highlights, updated at most once per frame
+    private final PlotRenderLoop.Layer highlightLayer;
+    private final PlotRenderLoop.Layer imageHighlightLayer;
+
     public PlotInteractionHandler(Canvas overlayCanvas, StackPane plotPane, PlotTransform transform,
                                   PlotRenderer renderer, PhasorDataManager dataManager,
                                   ImageDisplay imageDisplay, RandomAccessibleInterval<FloatType> intensity) {
@@ -71,6 +75,8 @@ public class PlotInteractionHandler {
         this.dataManager = dataManager;
         this.imageDisplay = imageDisplay;
         this.intensity = intensity;
+        this.highlightLayer = renderer.getRenderLoop().addLayer(this::updateHighlights);
+        this.imageHighlightLayer = renderer.getRenderLoop().addLayer(this::highlightImagePixels);
     }
 
     public void setIntensityImage(RandomAccessibleInterval<FloatType> intensity) {
@@ -102,16 +108,16 @@ public class PlotInteractionHandler {
         switch (event.getCode()) {
             case R:
                 transform.reset();
-                renderer.redrawAll();
+                renderer.invalidateAll();
                 break;
             case F:
                 transform.fitToContent(overlayCanvas.getWidth(), overlayCanvas.getHeight());
-                renderer.redrawAll();
+                renderer.invalidateAll();
                 break;
             case H:
                 showOverlay = !showOverlay;
                 renderer.setOverlayVisible(showOverlay);
-                renderer.redrawOverlay();
+                renderer.invalidateOverlay();
                 break;
             case Z:
                 toggleZoomBoxMode();
@@ -187,7 +193,7 @@ public class PlotInteractionHandler {
             cursorCircleRadius = Math.max(MIN_CURSOR_RADIUS, Math.min(MAX_CURSOR_RADIUS, newRadius));
 
             updateRendererCursorState();
-            highlightImagePixels();
+            imageHighlightLayer.invalidate();
         }
     }
 
@@ -244,7 +250,7 @@ public class PlotInteractionHandler {
         if (Math.abs(boxRight - boxLeft) > 10 && Math.abs(boxBottom - boxTop) > 10) {
             transform.zoomToBox(boxLeft, boxTop, boxRight, boxBottom,
                     overlayCanvas.getWidth(), overlayCanvas.getHeight());
-            renderer.redrawAll();
+            renderer.invalidateAll();
         }
 
         // Exit zoom box mode after zooming
@@ -276,7 +282,7 @@ public class PlotInteractionHandler {
         lastPanX = x;
         lastPanY = y;
 
-        renderer.redrawAll();
+        renderer.invalidateAll();
     }
 
     private void finishPanning() {
@@ -292,7 +298,7 @@ public class PlotInteractionHandler {
             updateRendererCursorState();
 
             if (cursorVisible) {
-                updateHighlights(); // Replace highlightImagePixels() with this
+                highlightLayer.invalidate();
             } else {
                 clearHighlights(); // Clear when cursor not visible
             }
@@ -301,13 +307,13 @@ public class PlotInteractionHandler {
     private void updateRendererZoomBoxState() {
         renderer.setZoomBoxState(isZoomBoxActive, isDraggingZoomBox,
                 zoomBoxStartX, zoomBoxStartY, zoomBoxCurrentX, zoomBoxCurrentY);
-        renderer.redrawOverlay();
+        renderer.invalidateOverlay();
     }
 
     private void updateRendererCursorState() {
         renderer.setCursorState(showCircleCursor && cursorVisible && !isDraggingZoomBox,
                 cursorScreenX, cursorScreenY, cursorCircleRadius);
-        renderer.redrawOverlay();
+        renderer.invalidateOverlay();
     }
 
     private void highlightImagePixels() {
@@ -315,26 +321,28 @@ public class PlotInteractionHandler {
             return;
         }
 
-        List<int[]> coords = getPointsInsideCursor();
+        // one bit per image pixel, so each pixel is looked up once instead of scanning the points
+        int width = (int) intensity.dimension(0);
+        BitSet selected = new BitSet();
+        forEachPointInsideCursor(i ->
+                selected.set(dataManager.getImageY(i) * width + dataManager.getImageX(i)));
 
+        ARGBType redPixel = new ARGBType(0xFFFF0000); // Red color (ARGB format)
         imageDisplay.setImage(intensity, ImageDisplay.INTENSITY_CONV, (srcRA, lutedRA) -> {
-            long x = srcRA.getLongPosition(0);
-            long y = srcRA.getLongPosition(1);
-
-            for (int[] coord : coords) {
-                if (coord[0] == y && coord[1] == x) {
-                    ARGBType redPixel = new ARGBType();
-                    redPixel.set(0xFFFF0000); // Red color (ARGB format)
-                    return redPixel;
-                }
-            }
-            return lutedRA.get();
+            int x = srcRA.getIntPosition(0);
+            int y = srcRA.getIntPosition(1);
+            return selected.get(y * width + x) ? redPixel : lutedRA.get();
         });
     }
 
-    private List<int[]> getPointsInsideCursor() {
+    /**
+     * Visit the points inside the circle cursor.
+     *
+     * @return the number of points visited
+     */
+    private int forEachPointInsideCursor(PhasorDataManager.PointVisitor visitor) {
         if (!showCircleCursor || !cursorVisible) {
-            return List.of();
+            return 0;
         }
 
         // Convert cursor screen position to data coordinates
@@ -345,9 +353,7 @@ public class PlotInteractionHandler {
         double radiusDataX = cursorCircleRadius / (transform.getScaleFactor() * PlotTransform.PLOT_WIDTH);
         double radiusDataY = cursorCircleRadius / (transform.getScaleFactor() * PlotTransform.PLOT_HEIGHT) * 0.6;
 
-        List<int[]> coords = dataManager.getPointsInsideCursor(cursorDataX, cursorDataY, radiusDataX, radiusDataY);
-
-        return coords;
+        return dataManager.forEachPointInsideCursor(cursorDataX, cursorDataY, radiusDataX, radiusDataY, visitor);
     }
 
     public void setupHighlightOverlay(Pane imageParent) {
@@ -404,14 +410,6 @@ public class PlotInteractionHandler {
             return;
         }
 
-        // Convert cursor position to data coordinates
-        double cursorDataX = transform.screenToDataX(cursorScreenX);
-        double cursorDataY = transform.screenToDataY(cursorScreenY);
-
-        List<int[]> coords = getPointsInsideCursor();
-
-        if (coords.isEmpty()) return;
-
         // Calculate pixel size on screen
         double canvasWidth = highlightOverlay.getWidth();
         double canvasHeight = highlightOverlay.getHeight();
@@ -424,13 +422,13 @@ public class PlotInteractionHandler {
         gc.setLineWidth(0.5);
 
         // Draw highlights for each coordinate
-        for (int[] coord : coords) {
-            double screenX = coord[0] * pixelWidth;
-            double screenY = coord[1] * pixelHeight;
+        forEachPointInsideCursor(i -> {
+            double screenX = dataManager.getImageX(i) * pixelWidth;
+            double screenY = dataManager.getImageY(i) * pixelHeight;
 
             gc.fillRect(screenX, screenY, pixelWidth, pixelHeight);
             gc.strokeRect(screenX, screenY, pixelWidth, pixelHeight);
-        }
+        });
     }
     private void clearHighlights() {
         if (highlightOverlay == null) return;
@@ -0,0 +1,218 @@
+package org.phasorj.ui.controllerHelpers.plot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.application.Platform;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Rasterizes the data layer of the phasor plot, the points or their density, on a worker thread.
+ * <p>
+ * Every request gets a generation number. The worker skips requests that a newer one has
+ * replaced before it got to them, and frames that were replaced while being rasterized are
+ * dropped instead of shown, so a burst of zoom or pan steps costs one frame, not one per step.
+ * A finished frame is copied into the {@link PixelBuffer} behind {@link #getImage()} on the
+ * JavaFX thread, the only work left there. Pixel arrays are reused between frames.
+ * </p>
+ * <p>
+ * The density modes read a {@link HistogramPyramid} that is built on the worker at the first
+ * request after the points change, so zooming and panning do not bin the points again.
+ * </p>
+ * <p>
+ * The worker reads the point arrays passed to {@link #request} up to the size passed with them.
+ * The data manager never rewrites them below that size, so every frame and pyramid sees the
+ * points as they were when it was requested, even if they were updated since.
+ * </p>
+ */
+class PlotRasterizer {
+
+    /**
+     * A rasterized data layer and the view it was rasterized for.
+     */
+    static final class Frame {
+        final long generation;
+        final int width, height;
+        final double scale, offsetX, offsetY;
+        final int[] pixels;
+
+        private Frame(long generation, int width, int height,
+                      double scale, double offsetX, double offsetY, int[] pixels) {
+            this.generation = generation;
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.pixels = pixels;
+        }
+    }
+
+    private static final int POINT_COLOR = 0xFF0000FF;
+
+    // canvas pixels per histogram bin edge in the density modes
+    private static final int DENSITY_BIN_PIXELS = 2;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "PhasorJ plot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // generation of the newest request, frames of older ones are stale
+    private final AtomicLong latest = new AtomicLong();
+    // pixel arrays of frames that were shown or dropped
+    private final ConcurrentLinkedQueue<int[]> spare = new ConcurrentLinkedQueue<>();
+    // used by the worker only
+    private final PhasorHistogram histogram = new PhasorHistogram();
+    private final HistogramPyramid pyramid = new HistogramPyramid();
+
+    // run on the JavaFX thread when a frame is ready to be shown
+    private final Runnable onFrame;
+
+    // JavaFX thread only
+    private PixelBuffer<IntBuffer> pixelBuffer;
+    private WritableImage image;
+    private Frame shown;
+
+    /**
+     * @param onFrame run on the JavaFX thread after a new frame was copied into the image
+     */
+    PlotRasterizer(Runnable onFrame) {
+        this.onFrame = onFrame;
+    }
+
+    /**
+     * Rasterize the points for the given view, replacing any request not finished yet. Call on
+     * the JavaFX thread.
+     *
+     * @param g       G of the points, not rewritten below {@code size} afterwards
+     * @param s       S of the points, not rewritten below {@code size} afterwards
+     * @param size    number of points
+     * @param version data version of the points, the density pyramid is rebuilt when it changes
+     * @param mode    how the points are drawn
+     */
+    void request(float[] g, float[] s, int size, long version, PlotRenderer.PointMode mode,
+                 PlotTransform transform, int width, int height) {
+        long generation = latest.incrementAndGet();
+        double scale = transform.getScaleFactor();
+        double offsetX = transform.getOffsetX();
+        double offsetY = transform.getOffsetY();
+        worker.execute(() -> {
+            if (generation != latest.get()) {
+                return;
+            }
+            int[] pixels = takePixels(width * height);
+            if (mode == PlotRenderer.PointMode.POINTS) {
+                rasterizePoints(g, s, size, scale, offsetX, offsetY, width, height, pixels);
+            } else {
+                if (pyramid.getVersion() != version) {
+                    pyramid.build(g, s, size, DENSITY_BIN_PIXELS, version);
+                }
+                rasterizeDensity(scale, offsetX, offsetY, width, height,
+                        mode == PlotRenderer.PointMode.DENSITY_LOG, pixels);
+            }
+            Frame frame = new Frame(generation, width, height, scale, offsetX, offsetY, pixels);
+            if (generation != latest.get()) {
+                spare.add(pixels);
+                return;
+            }
+            Platform.runLater(() -> show(frame));
+        });
+    }
+
+    private int[] takePixels(int length) {
+        int[] pixels;
+        while ((pixels = spare.poll()) != null) {
+            if (pixels.length == length) {
+                return pixels;
+            }
+        }
+        return new int[length];
+    }
+
+    private static void rasterizePoints(float[] g, float[] s, int size,
+                                        double scale, double offsetX, double offsetY,
+                                        int width, int height, int[] pixels) {
+        Arrays.fill(pixels, 0);
+        // canvas = world * scale + offset, world from PlotTransform.dataToScreen
+        double ax = PlotTransform.PLOT_WIDTH * scale;
+        double bx = PlotTransform.PLOT_LEFT * scale + offsetX;
+        double ay = -PlotTransform.PLOT_HEIGHT / 0.6 * scale;
+        double by = PlotTransform.PLOT_BOTTOM * scale + offsetY;
+        for (int i = 0; i < size; i++) {
+            if (g[i] == 0 && s[i] == 0) { // Skip zero points
+                continue;
+            }
+            double x = g[i] * ax + bx;
+            double y = s[i] * ay + by;
+            // also false for NaN
+            if (x >= 0 && x < width && y >= 0 && y < height) {
+                pixels[(int) y * width + (int) x] = POINT_COLOR;
+            }
+        }
+    }
+
+    private void rasterizeDensity(double scale, double offsetX, double offsetY,
+                                  int width, int height, boolean log, int[] pixels) {
+        int binsX = (width + DENSITY_BIN_PIXELS - 1) / DENSITY_BIN_PIXELS;
+        int binsY = (height + DENSITY_BIN_PIXELS - 1) / DENSITY_BIN_PIXELS;
+        histogram.sample(pyramid, scale, offsetX, offsetY, binsX, binsY, DENSITY_BIN_PIXELS);
+        int[] colors = histogram.colorize(log);
+        for (int y = 0; y < height; y++) {
+            int bins = (y / DENSITY_BIN_PIXELS) * binsX;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[row + x] = colors[bins + x / DENSITY_BIN_PIXELS];
+            }
+        }
+    }
+
+    private void show(Frame frame) {
+        if (frame.generation != latest.get()) {
+            spare.add(frame.pixels);
+            return;
+        }
+        if (pixelBuffer == null || pixelBuffer.getWidth() != frame.width
+                || pixelBuffer.getHeight() != frame.height) {
+            IntBuffer buffer = ByteBuffer.allocateDirect(frame.width * frame.height * Integer.BYTES)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+            pixelBuffer = new PixelBuffer<>(frame.width, frame.height, buffer,
+                    PixelFormat.getIntArgbPreInstance());
+            image = new WritableImage(pixelBuffer);
+        }
+        // the colors are opaque or fully transparent, so they are premultiplied already
+        pixelBuffer.updateBuffer(b -> {
+            IntBuffer buffer = b.getBuffer();
+            buffer.position(0);
+            buffer.put(frame.pixels);
+            buffer.position(0);
+            return null;
+        });
+        spare.add(frame.pixels);
+        shown = frame;
+        onFrame.run();
+    }
+
+    /**
+     * @return the image of the frame shown, null before the first frame
+     */
+    WritableImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return the frame shown, its pixels already reused; null before the first frame
+     */
+    Frame getShown() {
+        return shown;
+    }
+}
@@ -0,0 +1,139 @@
+package org.phasorj.ui.controllerHelpers.plot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Draws invalidated layers of the plot at most once per JavaFX pulse.
+ * <p>
+ * Input handlers only mark layers dirty, so a burst of mouse events between two pulses, as a
+ * high-polling-rate mouse produces, costs one redraw of each layer it touched. Layers are
+ * invalidated independently: moving the cursor redraws the overlay but not the points. The timer
+ * only runs while something is dirty.
+ * </p>
+ * <p>
+ * Every frame that drew something is timed; see {@link #getFrameCount()} and the frame time
+ * getters. {@link #getCoalescedCount()} counts the invalidations that were merged into a frame
+ * already pending.
+ * </p>
+ */
+public class PlotRenderLoop extends AnimationTimer {
+
+    /**
+     * Something drawn at most once per frame, after it was invalidated.
+     */
+    public final class Layer {
+        private final Runnable draw;
+        private boolean dirty;
+
+        private Layer(Runnable draw) {
+            this.draw = draw;
+        }
+
+        /**
+         * Draw the layer at the next pulse. Call on the JavaFX thread.
+         */
+        public void invalidate() {
+            if (dirty) {
+                coalesced++;
+                return;
+            }
+            dirty = true;
+            if (!running) {
+                running = true;
+                start();
+            }
+        }
+    }
+
+    // in drawing order
+    private final List<Layer> layers = new ArrayList<>();
+    private boolean running;
+
+    // frame statistics, in nanoseconds
+    private long frames;
+    private long coalesced;
+    private long lastFrame;
+    private long totalFrames;
+    private long maxFrame;
+
+    /**
+     * Add a layer, drawn after the layers added before it.
+     *
+     * @param draw draws the layer, on the JavaFX thread
+     */
+    public Layer addLayer(Runnable draw) {
+        Layer layer = new Layer(draw);
+        layers.add(layer);
+        return layer;
+    }
+
+    @Override
+    public void handle(long now) {
+        long start = System.nanoTime();
+        boolean drew = false;
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (layer.dirty) {
+                // cleared first, so that drawing may invalidate the layer for the next frame
+                layer.dirty = false;
+                layer.draw.run();
+                drew = true;
+            }
+        }
+        if (!drew) {
+            running = false;
+            stop();
+            return;
+        }
+        lastFrame = System.nanoTime() - start;
+        totalFrames += lastFrame;
+        maxFrame = Math.max(maxFrame, lastFrame);
+        frames++;
+    }
+
+    /**
+     * @return the number of frames that drew at least one layer
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * @return the number of invalidations merged into a frame that was already pending
+     */
+    public long getCoalescedCount() {
+        return coalesced;
+    }
+
+    /**
+     * @return the time spent drawing the last frame, in milliseconds
+     */
+    public double getLastFrameMillis() {
+        return lastFrame / 1e6;
+    }
+
+    /**
+     * @return the mean time spent drawing a frame, in milliseconds
+     */
+    public double getMeanFrameMillis() {
+        return frames == 0 ? 0 : totalFrames / 1e6 / frames;
+    }
+
+    /**
+     * @return the longest time spent drawing a frame, in milliseconds
+     */
+    public double getMaxFrameMillis() {
+        return maxFrame / 1e6;
+    }
+
+    public void resetStatistics() {
+        frames = 0;
+        coalesced = 0;
+        lastFrame = 0;
+        totalFrames = 0;
+        maxFrame = 0;
+    }
+}
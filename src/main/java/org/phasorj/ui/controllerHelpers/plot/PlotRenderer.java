@@ -1,18 +1,40 @@
 package org.phasorj.ui.controllerHelpers.plot;
 
-import java.util.List;
-
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.transform.Affine;
-import org.phasorj.ui.controllerHelpers.plot.PhasorDataManager.PhasorPoint;
+import javafx.scene.transform.Transform;
 
 /**
  * Handles all drawing operations for the phasor plot.
+ * <p>
+ * Callers that react to input invalidate the plot or the overlay, which the
+ * {@link PlotRenderLoop} then redraws at most once per frame; the redraw methods draw at once.
+ * </p>
+ * <p>
+ * The points, or their density, are rasterized off the JavaFX thread by a
+ * {@link PlotRasterizer}; the plot is drawn again with the new frame once it is ready, and until
+ * then with the previous frame moved to the current zoom and pan. The axes, grid, labels and
+ * universal circle are kept as an image that is only drawn again when the zoom or pan changes.
+ * </p>
  */
 public class PlotRenderer {
 
+    /**
+     * How the phasor points are drawn.
+     */
+    public enum PointMode {
+        // one dot per point
+        POINTS,
+        // 2D histogram, colors proportional to the counts
+        DENSITY_LINEAR,
+        // 2D histogram, colors following the logarithm of the counts
+        DENSITY_LOG
+    }
+
     private final Canvas plotCanvas;
     private final Canvas overlayCanvas;
     private final GraphicsContext plotGC;
@@ -23,6 +45,25 @@ public class PlotRenderer {
 
     private final PlotOverlay overlay;
 
+    // G, S of the two unmixing components, null when unmixing is off
+    private double[] component1, component2;
+
+    private PointMode pointMode = PointMode.POINTS;
+    private final PlotRasterizer rasterizer;
+
+    private final PlotRenderLoop renderLoop = new PlotRenderLoop();
+    private final PlotRenderLoop.Layer plotLayer;
+    private final PlotRenderLoop.Layer overlayLayer;
+    // whether the next frame of the plot layer rasterizes the points again
+    private boolean pointsDirty;
+
+    // axes, grid, labels and universal circle, drawn off screen and kept as an image
+    private final Canvas staticCanvas = new Canvas();
+    private final SnapshotParameters staticParameters = new SnapshotParameters();
+    private WritableImage staticLayer;
+    // zoom and pan the static layer was drawn for
+    private double staticScale, staticOffsetX, staticOffsetY;
+
     public PlotRenderer(Canvas plotCanvas, Canvas overlayCanvas,
                         PlotTransform transform, PhasorDataManager dataManager) {
         this.plotCanvas = plotCanvas;
@@ -32,6 +73,11 @@ public class PlotRenderer {
         this.transform = transform;
         this.dataManager = dataManager;
         this.overlay = new PlotOverlay(overlayGC, transform);
+        this.staticParameters.setFill(Color.TRANSPARENT);
+        this.plotLayer = renderLoop.addLayer(this::drawPlotLayer);
+        this.overlayLayer = renderLoop.addLayer(overlay::redraw);
+        // a finished frame only needs painting
+        this.rasterizer = new PlotRasterizer(plotLayer::invalidate);
     }
 
     public void redrawAll() {
@@ -39,8 +85,63 @@ public class PlotRenderer {
         redrawOverlay();
     }
 
+    /**
+     * Redraw the plot at the next frame, after the data, zoom or pan changed.
+     */
+    public void invalidatePlot() {
+        pointsDirty = true;
+        plotLayer.invalidate();
+    }
+
+    /**
+     * Redraw the plot at the next frame with the points already rasterized, after the unmixing
+     * components changed.
+     */
+    public void invalidateFractionLine() {
+        plotLayer.invalidate();
+    }
+
+    /**
+     * Redraw the overlay at the next frame, after the cursor or zoom box changed.
+     */
+    public void invalidateOverlay() {
+        overlayLayer.invalidate();
+    }
+
+    public void invalidateAll() {
+        invalidatePlot();
+        invalidateOverlay();
+    }
+
+    /**
+     * @return the loop that draws invalidated layers, with its frame statistics
+     */
+    public PlotRenderLoop getRenderLoop() {
+        return renderLoop;
+    }
+
+    private void drawPlotLayer() {
+        if (pointsDirty) {
+            redrawPlot();
+        } else {
+            paintPlot();
+        }
+    }
+
+    /**
+     * Draw the plot, and start rasterizing the points for the current data, zoom and pan.
+     */
     public void redrawPlot() {
+        pointsDirty = false;
+        rasterizer.request(dataManager.getGArray(), dataManager.getSArray(), dataManager.size(),
+                dataManager.getVersion(), pointMode, transform,
+                (int) plotCanvas.getWidth(), (int) plotCanvas.getHeight());
+        paintPlot();
+    }
+
+    private void paintPlot() {
         plotGC.clearRect(0, 0, plotCanvas.getWidth(), plotCanvas.getHeight());
+        plotGC.drawImage(staticLayer(), 0, 0, plotCanvas.getWidth(), plotCanvas.getHeight());
 
         Affine oldTransform = plotGC.getTransform();
 
@@ -59,78 +160,154 @@ public class PlotRenderer {
     }
 
     private void drawPlotContent() {
-        drawAxes();
-        drawGrid();
-        drawLabels();
-        drawUniversalCircle();
         drawPhasorPoints();
+        drawFractionLine();
+    }
+
+    /**
+     * @return the axes, grid, labels and universal circle for the current zoom and pan, drawn
+     * again only when those or the canvas size changed
+     */
+    private WritableImage staticLayer() {
+        double width = plotCanvas.getWidth();
+        double height = plotCanvas.getHeight();
+        // render at the screen's resolution, so that text stays sharp on high-DPI screens
+        double outputScale = 1;
+        if (plotCanvas.getScene() != null && plotCanvas.getScene().getWindow() != null) {
+            outputScale = plotCanvas.getScene().getWindow().getOutputScaleX();
+        }
+        double imageWidth = Math.ceil(width * outputScale);
+        double imageHeight = Math.ceil(height * outputScale);
+        boolean sameSize = staticLayer != null
+                && staticLayer.getWidth() == imageWidth && staticLayer.getHeight() == imageHeight;
+        if (sameSize && staticScale == transform.getScaleFactor()
+                && staticOffsetX == transform.getOffsetX() && staticOffsetY == transform.getOffsetY()) {
+            return staticLayer;
+        }
+        staticScale = transform.getScaleFactor();
+        staticOffsetX = transform.getOffsetX();
+        staticOffsetY = transform.getOffsetY();
+
+        staticCanvas.setWidth(width);
+        staticCanvas.setHeight(height);
+        GraphicsContext gc = staticCanvas.getGraphicsContext2D();
+        gc.setTransform(new Affine());
+        gc.clearRect(0, 0, width, height);
+        gc.translate(staticOffsetX, staticOffsetY);
+        gc.scale(staticScale, staticScale);
+        drawAxes(gc);
+        drawGrid(gc);
+        drawLabels(gc);
+        drawUniversalCircle(gc);
+
+        staticParameters.setTransform(Transform.scale(outputScale, outputScale));
+        staticLayer = staticCanvas.snapshot(staticParameters, sameSize ? staticLayer : null);
+        return staticLayer;
+    }
+
+    public PointMode getPointMode() {
+        return pointMode;
+    }
+
+    /**
+     * Takes effect at the next {@link #redrawPlot()}.
+     */
+    public void setPointMode(PointMode pointMode) {
+        this.pointMode = pointMode;
+    }
+
+    /**
+     * @param component1 G and S of the first unmixing component, or null
+     * @param component2 G and S of the second unmixing component, or null
+     */
+    public void setFractionComponents(double[] component1, double[] component2) {
+        this.component1 = component1;
+        this.component2 = component2;
+    }
+
+    private void drawFractionLine() {
+        if (component1 == null || component2 == null) {
+            return;
+        }
+        double x1 = transform.dataToScreenX(component1[0]);
+        double y1 = transform.dataToScreenY(component1[1]);
+        double x2 = transform.dataToScreenX(component2[0]);
+        double y2 = transform.dataToScreenY(component2[1]);
+        double markerSize = 6 / transform.getScaleFactor();
+
+        plotGC.setStroke(Color.RED);
+        plotGC.setLineWidth(1.5 / transform.getScaleFactor());
+        plotGC.strokeLine(x1, y1, x2, y2);
+        plotGC.setFill(Color.RED);
+        plotGC.fillOval(x1 - markerSize / 2, y1 - markerSize / 2, markerSize, markerSize);
+        plotGC.fillOval(x2 - markerSize / 2, y2 - markerSize / 2, markerSize, markerSize);
     }
 
-    private void drawAxes() {
-        plotGC.setStroke(Color.BLACK);
-        plotGC.setLineWidth(2 / transform.getScaleFactor());
+    private void drawAxes(GraphicsContext gc) {
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(2 / transform.getScaleFactor());
 
         // X-axis (horizontal) - G axis from 0 to 1
-        plotGC.strokeLine(PlotTransform.PLOT_LEFT, PlotTransform.PLOT_BOTTOM,
+        gc.strokeLine(PlotTransform.PLOT_LEFT, PlotTransform.PLOT_BOTTOM,
                 PlotTransform.PLOT_RIGHT, PlotTransform.PLOT_BOTTOM);
         // Y-axis (vertical) - S axis from 0 to 0.6
-        plotGC.strokeLine(PlotTransform.PLOT_LEFT, PlotTransform.PLOT_BOTTOM,
+        gc.strokeLine(PlotTransform.PLOT_LEFT, PlotTransform.PLOT_BOTTOM,
                 PlotTransform.PLOT_LEFT, PlotTransform.PLOT_TOP);
     }
 
-    private void drawGrid() {
-        plotGC.setStroke(Color.LIGHTGRAY);
-        plotGC.setLineWidth(1 / transform.getScaleFactor());
+    private void drawGrid(GraphicsContext gc) {
+        gc.setStroke(Color.LIGHTGRAY);
+        gc.setLineWidth(1 / transform.getScaleFactor());
 
         // Vertical grid lines
         for (int i = 1; i <= 10; i++) {
             double x = PlotTransform.PLOT_LEFT + (i * PlotTransform.PLOT_WIDTH / 10.0);
-            plotGC.strokeLine(x, PlotTransform.PLOT_BOTTOM, x, PlotTransform.PLOT_TOP);
+            gc.strokeLine(x, PlotTransform.PLOT_BOTTOM, x, PlotTransform.PLOT_TOP);
         }
 
         // Horizontal grid lines
         for (int i = 1; i <= 6; i++) {
             double y = PlotTransform.PLOT_BOTTOM - (i * PlotTransform.PLOT_HEIGHT / 6.0);
-            plotGC.strokeLine(PlotTransform.PLOT_LEFT, y, PlotTransform.PLOT_RIGHT, y);
+            gc.strokeLine(PlotTransform.PLOT_LEFT, y, PlotTransform.PLOT_RIGHT, y);
         }
     }
 
-    private void drawLabels() {
-        plotGC.setFill(Color.BLACK);
+    private void drawLabels(GraphicsContext gc) {
+        gc.setFill(Color.BLACK);
         double fontSize = 12 / transform.getScaleFactor();
-        plotGC.setFont(javafx.scene.text.Font.font(fontSize));
+        gc.setFont(javafx.scene.text.Font.font(fontSize));
 
         // G-axis labels (0 to 1)
         for (int i = 0; i <= 10; i++) {
             double x = PlotTransform.PLOT_LEFT + (i * PlotTransform.PLOT_WIDTH / 10.0);
             double value = i * 0.1;
-            plotGC.fillText(String.format("%.1f", value), x - 8, PlotTransform.PLOT_BOTTOM + 20);
+            gc.fillText(String.format("%.1f", value), x - 8, PlotTransform.PLOT_BOTTOM + 20);
 
-            plotGC.setStroke(Color.BLACK);
-            plotGC.setLineWidth(1 / transform.getScaleFactor());
-            plotGC.strokeLine(x, PlotTransform.PLOT_BOTTOM - 3, x, PlotTransform.PLOT_BOTTOM + 3);
+            gc.setStroke(Color.BLACK);
+            gc.setLineWidth(1 / transform.getScaleFactor());
+            gc.strokeLine(x, PlotTransform.PLOT_BOTTOM - 3, x, PlotTransform.PLOT_BOTTOM + 3);
         }
 
         // S-axis labels (0 to 0.6)
         for (int i = 0; i <= 6; i++) {
             double y = PlotTransform.PLOT_BOTTOM - (i * PlotTransform.PLOT_HEIGHT / 6.0);
             double value = i * 0.1;
-            plotGC.fillText(String.format("%.1f", value), PlotTransform.PLOT_LEFT - 30, y + 4);
+            gc.fillText(String.format("%.1f", value), PlotTransform.PLOT_LEFT - 30, y + 4);
 
-            plotGC.setStroke(Color.BLACK);
-            plotGC.setLineWidth(1 / transform.getScaleFactor());
-            plotGC.strokeLine(PlotTransform.PLOT_LEFT - 3, y, PlotTransform.PLOT_LEFT + 3, y);
+            gc.setStroke(Color.BLACK);
+            gc.setLineWidth(1 / transform.getScaleFactor());
+            gc.strokeLine(PlotTransform.PLOT_LEFT - 3, y, PlotTransform.PLOT_LEFT + 3, y);
         }
 
         // Axis titles
-        plotGC.setFont(javafx.scene.text.Font.font(fontSize * 1.2));
-        plotGC.fillText("G", PlotTransform.PLOT_LEFT + PlotTransform.PLOT_WIDTH / 2 - 5,
+        gc.setFont(javafx.scene.text.Font.font(fontSize * 1.2));
+        gc.fillText("G", PlotTransform.PLOT_LEFT + PlotTransform.PLOT_WIDTH / 2 - 5,
                 PlotTransform.PLOT_BOTTOM + 45);
-        plotGC.fillText("S", PlotTransform.PLOT_LEFT - 50,
+        gc.fillText("S", PlotTransform.PLOT_LEFT - 50,
                 PlotTransform.PLOT_TOP + PlotTransform.PLOT_HEIGHT / 2 + 5);
     }
 
-    private void drawUniversalCircle() {
+    private void drawUniversalCircle(GraphicsContext gc) {
         // Universal circle: semicircle centered at (0.5, 0) with radius 0.5
         double centerDataX = 0.5;
         double centerDataY = 0.0;
@@ -143,8 +320,8 @@ public class PlotRenderer {
         double radiusScreenY = radiusData * (PlotTransform.PLOT_HEIGHT / 0.6);
 
         // Draw semicircle outline
-        plotGC.setStroke(Color.BLACK);
-        plotGC.setLineWidth(1 / transform.getScaleFactor());
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(1 / transform.getScaleFactor());
 
         double arcX = centerScreenX - radiusScreenX;
         double arcY = centerScreenY - radiusScreenY;
@@ -152,23 +329,27 @@ public class PlotRenderer {
         double arcHeight = 2 * radiusScreenY;
 
         // Draw semicircle (upper half only)
-        plotGC.strokeArc(arcX, arcY, arcWidth, arcHeight, 0, 180,
+        gc.strokeArc(arcX, arcY, arcWidth, arcHeight, 0, 180,
                 javafx.scene.shape.ArcType.OPEN);
     }
 
     private void drawPhasorPoints() {
-        plotGC.setFill(Color.BLUE);
-        double pointSize = 1 / transform.getScaleFactor();
-
-        List<PhasorPoint> points = dataManager.getPhasorPoints();
-        for (PhasorPoint point : points) {
-            if (point.g != 0 || point.s != 0) { // Skip zero points
-                double screenX = transform.dataToScreenX(point.g);
-                double screenY = transform.dataToScreenY(point.s);
-                plotGC.fillOval(screenX - pointSize/2, screenY - pointSize/2,
-                        pointSize, pointSize);
-            }
+        PlotRasterizer.Frame frame = rasterizer.getShown();
+        if (frame == null) {
+            return;
         }
+        // the frame may be from an earlier zoom and pan, until the current one is rasterized
+        double k = transform.getScaleFactor() / frame.scale;
+        double x = transform.getOffsetX() - frame.offsetX * k;
+        double y = transform.getOffsetY() - frame.offsetY * k;
+
+        // the frame is in canvas pixels, draw it without the zoom and pan transform
+        Affine zoomed = plotGC.getTransform();
+        plotGC.setTransform(new Affine());
+        plotGC.setImageSmoothing(false);
+        plotGC.drawImage(rasterizer.getImage(), x, y, frame.width * k, frame.height * k);
+        plotGC.setImageSmoothing(true);
+        plotGC.setTransform(zoomed);
     }
 
     // overlay actions
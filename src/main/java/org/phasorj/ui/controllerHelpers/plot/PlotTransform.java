@@ -14,13 +14,20 @@ public class PlotTransform {
     public static final double PLOT_RIGHT = PLOT_LEFT + PLOT_WIDTH;
     public static final double PLOT_TOP = PLOT_BOTTOM - PLOT_HEIGHT;
 
+    // Data range indexed for cursor queries and density bins: G in [0, 1] and S in [0, 0.6] as
+    // drawn, with a margin. Points outside it are outliers, e.g. of noisy or uncalibrated data
+    static final double DOMAIN_MIN_G = -0.1;
+    static final double DOMAIN_MAX_G = 1.1;
+    static final double DOMAIN_MIN_S = -0.1;
+    static final double DOMAIN_MAX_S = 0.7;
+
     // Zoom and pan variables
     private double scaleFactor = 1.0;
     private double offsetX = 0;
     private double offsetY = 0;
 
     private static final double MIN_SCALE = 0.1;
-    private static final double MAX_SCALE = 20.0;
+    static final double MAX_SCALE = 20.0;
 
     public double getScaleFactor() { return scaleFactor; }
     public double getOffsetX() { return offsetX; }
@@ -0,0 +1,170 @@
+package org.phasorj.ui.controllerHelpers.plot;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the (G, S) bounding box of the phasor points, answering cursor queries by
+ * testing only the points of the cells the cursor overlaps.
+ * <p>
+ * The grid has about {@link #POINTS_PER_CELL} points per cell. Point indices are counting-sorted
+ * by row-major cell, with copies of their G and S next to them, so the cells of one grid row are
+ * one contiguous run that a query scans without jumping around memory. Building is linear in the
+ * number of points and reuses the arrays of the previous build; queries do not allocate. Points
+ * with a NaN or infinite coordinate are left out.
+ * </p>
+ * <p>
+ * The bounding box is clamped to the plot domain, see {@link PlotTransform#DOMAIN_MIN_G}, so a
+ * few outliers do not pack the other points into a handful of cells. Points outside the domain
+ * go into an overflow bucket after the last cell that every query scans.
+ * </p>
+ */
+class PointGrid {
+
+    private static final int POINTS_PER_CELL = 16;
+    private static final int MAX_CELLS_PER_SIDE = 2048;
+
+    // cells per side, 0 when there are no points inside the domain
+    private int cells;
+    private double minG, minS, maxG, maxS, cellsPerG, cellsPerS;
+
+    // cellStart[c] to cellStart[c + 1] are the positions of the points of cell c, the cell after
+    // the last one is the overflow bucket
+    private int[] cellStart = new int[2];
+    // point indices sorted by cell, with their G and S
+    private int[] order = new int[0];
+    private float[] sortedG = new float[0];
+    private float[] sortedS = new float[0];
+
+    /**
+     * Index the first {@code size} points.
+     */
+    void build(float[] g, float[] s, int size) {
+        float loG = Float.POSITIVE_INFINITY, hiG = Float.NEGATIVE_INFINITY;
+        float loS = Float.POSITIVE_INFINITY, hiS = Float.NEGATIVE_INFINITY;
+        int count = 0;
+        int overflow = 0;
+        for (int i = 0; i < size; i++) {
+            if (!Float.isFinite(g[i]) || !Float.isFinite(s[i])) {
+                continue;
+            }
+            if (inDomain(g[i], s[i])) {
+                loG = Math.min(loG, g[i]);
+                hiG = Math.max(hiG, g[i]);
+                loS = Math.min(loS, s[i]);
+                hiS = Math.max(hiS, s[i]);
+                count++;
+            } else {
+                overflow++;
+            }
+        }
+        cells = count == 0 ? 0 : (int) Math.max(1, Math.min(MAX_CELLS_PER_SIDE,
+                Math.ceil(Math.sqrt((double) count / POINTS_PER_CELL))));
+        minG = loG;
+        minS = loS;
+        maxG = hiG;
+        maxS = hiS;
+        cellsPerG = hiG > loG ? cells / ((double) hiG - loG) : 0;
+        cellsPerS = hiS > loS ? cells / ((double) hiS - loS) : 0;
+
+        int buckets = cells * cells + 1;
+        if (cellStart.length < buckets + 1) {
+            cellStart = new int[buckets + 1];
+        } else {
+            Arrays.fill(cellStart, 0, buckets + 1, 0);
+        }
+        if (order.length < count + overflow) {
+            order = new int[count + overflow];
+            sortedG = new float[count + overflow];
+            sortedS = new float[count + overflow];
+        }
+
+        // counting sort: sizes, then starts, then fill advancing each start to the cell's end
+        for (int i = 0; i < size; i++) {
+            if (Float.isFinite(g[i]) && Float.isFinite(s[i])) {
+                cellStart[bucketOf(g[i], s[i]) + 1]++;
+            }
+        }
+        for (int c = 0; c < buckets; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        for (int i = 0; i < size; i++) {
+            if (Float.isFinite(g[i]) && Float.isFinite(s[i])) {
+                int at = cellStart[bucketOf(g[i], s[i])]++;
+                order[at] = i;
+                sortedG[at] = g[i];
+                sortedS[at] = s[i];
+            }
+        }
+        // each start now holds the next cell's start, shift them back
+        System.arraycopy(cellStart, 0, cellStart, 1, buckets);
+        cellStart[0] = 0;
+    }
+
+    private static boolean inDomain(float g, float s) {
+        return g >= PlotTransform.DOMAIN_MIN_G && g <= PlotTransform.DOMAIN_MAX_G
+                && s >= PlotTransform.DOMAIN_MIN_S && s <= PlotTransform.DOMAIN_MAX_S;
+    }
+
+    private int bucketOf(float g, float s) {
+        return inDomain(g, s) ? row(s) * cells + column(g) : cells * cells;
+    }
+
+    private int column(double g) {
+        return clamp((g - minG) * cellsPerG);
+    }
+
+    private int row(double s) {
+        return clamp((s - minS) * cellsPerS);
+    }
+
+    private int clamp(double cell) {
+        return (int) Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    /**
+     * Visit the points inside an elliptical area.
+     *
+     * @return the number of points visited
+     */
+    int forEachInside(double centerG, double centerS, double radiusG, double radiusS,
+                      PhasorDataManager.PointVisitor visitor) {
+        double invRg = 1 / radiusG;
+        double invRs = 1 / radiusS;
+        int overflow = cells * cells;
+        int count = visitInside(cellStart[overflow], cellStart[overflow + 1],
+                centerG, centerS, invRg, invRs, visitor);
+        if (cells == 0 || !(centerG + radiusG >= minG && centerG - radiusG <= maxG
+                && centerS + radiusS >= minS && centerS - radiusS <= maxS)) {
+            return count;
+        }
+        int column0 = column(centerG - radiusG);
+        int column1 = column(centerG + radiusG);
+        int row0 = row(centerS - radiusS);
+        int row1 = row(centerS + radiusS);
+        for (int row = row0; row <= row1; row++) {
+            count += visitInside(cellStart[row * cells + column0], cellStart[row * cells + column1 + 1],
+                    centerG, centerS, invRg, invRs, visitor);
+        }
+        return count;
+    }
+
+    /**
+     * Visit the sorted points in [from, to) inside the ellipse.
+     */
+    private int visitInside(int from, int to, double centerG, double centerS, double invRg, double invRs,
+                            PhasorDataManager.PointVisitor visitor) {
+        int count = 0;
+        for (int at = from; at < to; at++) {
+            // Calculate distance from cursor center to point in data coordinates
+            double deltaG = (sortedG[at] - centerG) * invRg;
+            double deltaS = (sortedS[at] - centerS) * invRs;
+
+            // Point is inside if distance is less than 1 (normalized radius)
+            if (deltaG * deltaG + deltaS * deltaS <= 1.0) {
+                visitor.visit(order[at]);
+                count++;
+            }
+        }
+        return count;
+    }
+}
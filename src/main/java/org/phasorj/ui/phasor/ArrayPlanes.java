@@ -0,0 +1,126 @@
+package org.phasorj.ui.phasor;
+
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * The primitive arrays behind ArrayImg and PlanarImg images of the pixel types FLIM data comes
+ * in, so that kernels can read them without converting to float first.
+ */
+final class ArrayPlanes {
+
+    enum Kind {FLOAT, UNSIGNED_SHORT, UNSIGNED_BYTE}
+
+    final Kind kind;
+    // float[][], short[][] or byte[][]; one plane for an ArrayImg, XY planes for a PlanarImg
+    final Object planes;
+    final int planeCount;
+    final boolean planar;
+
+    private ArrayPlanes(Kind kind, Object planes, int planeCount, boolean planar) {
+        this.kind = kind;
+        this.planes = planes;
+        this.planeCount = planeCount;
+        this.planar = planar;
+    }
+
+    /**
+     * @return the arrays behind the image, or null if it is not an ArrayImg or PlanarImg of
+     * FloatType, UnsignedShortType or UnsignedByteType
+     */
+    static ArrayPlanes of(Object img) {
+        if (!(img instanceof ArrayImg) && !(img instanceof PlanarImg)) {
+            return null;
+        }
+        Object type = ((NativeImg<?, ?>) img).getType();
+        Kind kind;
+        if (type instanceof FloatType) {
+            kind = Kind.FLOAT;
+        } else if (type instanceof UnsignedShortType) {
+            kind = Kind.UNSIGNED_SHORT;
+        } else if (type instanceof UnsignedByteType) {
+            kind = Kind.UNSIGNED_BYTE;
+        } else {
+            return null;
+        }
+
+        Object[] accesses;
+        boolean planar = img instanceof PlanarImg;
+        if (planar) {
+            PlanarImg<?, ?> p = (PlanarImg<?, ?>) img;
+            accesses = new Object[p.numSlices()];
+            for (int i = 0; i < accesses.length; i++) {
+                accesses[i] = p.getPlane(i);
+            }
+        } else {
+            accesses = new Object[]{((ArrayImg<?, ?>) img).update(null)};
+        }
+
+        int n = accesses.length;
+        Object planes;
+        switch (kind) {
+            case FLOAT:
+                float[][] f = new float[n][];
+                for (int i = 0; i < n; i++) {
+                    if (!(accesses[i] instanceof FloatArray)) return null;
+                    f[i] = ((FloatArray) accesses[i]).getCurrentStorageArray();
+                }
+                planes = f;
+                break;
+            case UNSIGNED_SHORT:
+                short[][] s = new short[n][];
+                for (int i = 0; i < n; i++) {
+                    if (!(accesses[i] instanceof ShortArray)) return null;
+                    s[i] = ((ShortArray) accesses[i]).getCurrentStorageArray();
+                }
+                planes = s;
+                break;
+            default:
+                byte[][] b = new byte[n][];
+                for (int i = 0; i < n; i++) {
+                    if (!(accesses[i] instanceof ByteArray)) return null;
+                    b[i] = ((ByteArray) accesses[i]).getCurrentStorageArray();
+                }
+                planes = b;
+                break;
+        }
+        return new ArrayPlanes(kind, planes, n, planar);
+    }
+
+    /**
+     * Reads {@code out.length} values, starting at {@code index} of plane {@code plane} and
+     * stepping by {@code planeStep} planes and {@code indexStep} values.
+     */
+    void readStrided(int plane, int planeStep, int index, int indexStep, double[] out) {
+        switch (kind) {
+            case FLOAT: {
+                float[][] src = (float[][]) planes;
+                for (int t = 0; t < out.length; t++, plane += planeStep, index += indexStep) {
+                    out[t] = src[plane][index];
+                }
+                break;
+            }
+            case UNSIGNED_SHORT: {
+                short[][] src = (short[][]) planes;
+                for (int t = 0; t < out.length; t++, plane += planeStep, index += indexStep) {
+                    out[t] = src[plane][index] & 0xffff;
+                }
+                break;
+            }
+            default: {
+                byte[][] src = (byte[][]) planes;
+                for (int t = 0; t < out.length; t++, plane += planeStep, index += indexStep) {
+                    out[t] = src[plane][index] & 0xff;
+                }
+                break;
+            }
+        }
+    }
+}
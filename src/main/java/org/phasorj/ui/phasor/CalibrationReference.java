@@ -0,0 +1,193 @@
+package org.phasorj.ui.phasor;
+
+/**
+ * The phasor of a calibration (reference) image, reduced once and shared by every entry that is
+ * calibrated against it.
+ * <p>
+ * Like phasorpy's {@code phasor_calibrate} with {@code method='mean'}, the reference is reduced to
+ * the mean of its valid (non-NaN) phasor coordinates. With a tile size, the reference is instead
+ * reduced per tile so that a spatially varying reference can be applied to images of the same
+ * size. The rotation and scale that map the reference onto the known lifetime are cached per
+ * frequency and lifetime.
+ * </p>
+ */
+public class CalibrationReference {
+
+    private final Object source;
+    private final int harmonic;
+    private final int tileSize;
+
+    private final int width, height;
+    private final int tilesX, tilesY;
+
+    // reference mean, real and imag of the whole image and per tile
+    private final double mean, real, imag;
+    private final double[] refMean, refReal, refImag;
+
+    // correction coefficients per tile, mod * cos(phi) and mod * sin(phi)
+    private double corrFrequency = Double.NaN, corrLifetime = Double.NaN;
+    private float[] corrA, corrB;
+
+    /**
+     * Reduces the phasor of a reference image.
+     *
+     * @param source   the object the reference was computed from, compared by identity
+     * @param harmonic the harmonic the reference phasor was computed at
+     * @param phasor   X x Y x 3 array of the reference phasor (mean, real, imag planes)
+     * @param width    reference width
+     * @param height   reference height
+     * @param tileSize edge length of the tiles the reference is reduced over, 0 for the whole image
+     * @throws IllegalArgumentException if no pixel of the reference has a valid phasor, e.g. an
+     *                                  image without signal, or their mean phasor is zero
+     */
+    public CalibrationReference(Object source, int harmonic, float[] phasor, int width, int height,
+                                int tileSize) {
+        if (tileSize < 0) {
+            throw new IllegalArgumentException("Tile size must not be negative, got " + tileSize);
+        }
+        this.source = source;
+        this.harmonic = harmonic;
+        this.tileSize = tileSize;
+        this.width = width;
+        this.height = height;
+        this.tilesX = tileSize == 0 ? 1 : (width + tileSize - 1) / tileSize;
+        this.tilesY = tileSize == 0 ? 1 : (height + tileSize - 1) / tileSize;
+
+        int nTiles = tilesX * tilesY;
+        refMean = new double[nTiles];
+        refReal = new double[nTiles];
+        refImag = new double[nTiles];
+        long[] count = new long[nTiles];
+        double sumMean = 0, sumReal = 0, sumImag = 0;
+        long total = 0;
+
+        int plane = width * height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                float m = phasor[PhasorTransform.MEAN * plane + i];
+                float g = phasor[PhasorTransform.REAL * plane + i];
+                float s = phasor[PhasorTransform.IMAG * plane + i];
+                if (Float.isNaN(m) || Float.isNaN(g) || Float.isNaN(s)) {
+                    continue;
+                }
+                int tile = tileIndex(x, y);
+                refMean[tile] += m;
+                refReal[tile] += g;
+                refImag[tile] += s;
+                count[tile]++;
+                sumMean += m;
+                sumReal += g;
+                sumImag += s;
+                total++;
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("The calibration image has no pixel with a valid phasor");
+        }
+        mean = sumMean / total;
+        real = sumReal / total;
+        imag = sumImag / total;
+        if (real == 0 && imag == 0) {
+            throw new IllegalArgumentException("The mean phasor of the calibration image is zero");
+        }
+        for (int tile = 0; tile < nTiles; tile++) {
+            refMean[tile] /= count[tile];
+            refReal[tile] /= count[tile];
+            refImag[tile] /= count[tile];
+        }
+    }
+
+    /**
+     * @return true if this reference was computed from {@code source} at {@code harmonic} with
+     * the given tile size
+     */
+    public boolean matches(Object source, int harmonic, int tileSize) {
+        return this.source == source && this.harmonic == harmonic && this.tileSize == tileSize;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getReal() {
+        return real;
+    }
+
+    public double getImag() {
+        return imag;
+    }
+
+    /**
+     * Calibrates G and S planes against this reference, see {@link PhasorCalibration#transform}
+     * for the array layout. Images with the same size as the reference use the per-tile
+     * corrections, all others use the correction of the whole reference.
+     *
+     * @param frequency laser repetition frequency in MHz
+     * @param lifetime  known lifetime of the reference in ns
+     */
+    public void apply(float[] src, int srcReal, int srcImag,
+                      float[] dst, int dstReal, int dstImag,
+                      int width, int height,
+                      double frequency, double lifetime,
+                      ComputePool pool) {
+        final float[] a, b;
+        synchronized (this) {
+            updateCorrections(frequency, lifetime);
+            a = corrA;
+            b = corrB;
+        }
+
+        if (tilesX * tilesY == 1 || width != this.width || height != this.height) {
+            int whole = a.length - 1;
+            PhasorCalibration.transform(src, srcReal, srcImag, dst, dstReal, dstImag, width, height,
+                    Math.atan2(b[whole], a[whole]), Math.hypot(a[whole], b[whole]), pool);
+            return;
+        }
+
+        pool.forEachRows(height, (y0, y1) -> {
+            for (int y = (int) y0; y < y1; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    int tile = tileIndex(x, y);
+                    float g = src[srcReal + i];
+                    float s = src[srcImag + i];
+                    dst[dstReal + i] = a[tile] * g - b[tile] * s;
+                    dst[dstImag + i] = b[tile] * g + a[tile] * s;
+                }
+            }
+        });
+    }
+
+    /**
+     * Recomputes the per-tile coefficients when the frequency or lifetime changed. The last
+     * element of each array holds the coefficient of the whole reference, which is also used
+     * for tiles without valid reference pixels.
+     */
+    private void updateCorrections(double frequency, double lifetime) {
+        if (corrA != null && frequency == corrFrequency && lifetime == corrLifetime) {
+            return;
+        }
+        double[] known = PhasorCalibration.lifetimePhasor(frequency * harmonic, lifetime);
+        int nTiles = tilesX * tilesY;
+        float[] a = new float[nTiles + 1];
+        float[] b = new float[nTiles + 1];
+        for (int tile = 0; tile <= nTiles; tile++) {
+            boolean useTile = tile < nTiles && !Double.isNaN(refReal[tile]);
+            double re = useTile ? refReal[tile] : real;
+            double im = useTile ? refImag[tile] : imag;
+            double phase = Math.atan2(known[1], known[0]) - Math.atan2(im, re);
+            double mod = Math.hypot(known[0], known[1]) / Math.hypot(re, im);
+            a[tile] = (float) (mod * Math.cos(phase));
+            b[tile] = (float) (mod * Math.sin(phase));
+        }
+        corrA = a;
+        corrB = b;
+        corrFrequency = frequency;
+        corrLifetime = lifetime;
+    }
+
+    private int tileIndex(int x, int y) {
+        return tileSize == 0 ? 0 : (y / tileSize) * tilesX + x / tileSize;
+    }
+}
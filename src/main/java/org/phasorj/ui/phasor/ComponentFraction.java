@@ -0,0 +1,61 @@
+package org.phasorj.ui.phasor;
+
+/**
+ * Fractions of two components, like phasorpy's {@code phasor_component_fraction}: every phasor
+ * is projected onto the line between the phasors of the components, and the fraction of the
+ * first component is the relative distance of the projection from the second one, clipped to
+ * [0, 1].
+ * <p>
+ * The projection reduces to one multiply-add per coordinate with constants computed once per
+ * call. The inner loop runs over whole rows without branches, NaN phasors giving NaN, so that
+ * the JIT can vectorize it.
+ * </p>
+ */
+public final class ComponentFraction {
+
+    private ComponentFraction() {
+    }
+
+    /**
+     * Computes the fraction of the first component for one plane. Does not allocate; rows are
+     * split over the pool.
+     *
+     * @param src     array holding the G and S planes
+     * @param srcReal offset of the G plane in {@code src}
+     * @param srcImag offset of the S plane in {@code src}
+     * @param dst     array receiving the fraction plane
+     * @param dstOff  offset of the fraction plane in {@code dst}
+     * @param width   plane width
+     * @param height  plane height
+     * @param real1   G of the first component
+     * @param imag1   S of the first component
+     * @param real2   G of the second component
+     * @param imag2   S of the second component
+     * @param pool    the pool the rows are split over
+     */
+    public static void compute(float[] src, int srcReal, int srcImag, float[] dst, int dstOff,
+                               int width, int height,
+                               double real1, double imag1, double real2, double imag2,
+                               ComputePool pool) {
+        double dx = real1 - real2;
+        double dy = imag1 - imag2;
+        double length2 = dx * dx + dy * dy;
+        if (!(length2 > 0)) {
+            throw new IllegalArgumentException("The two components must have different phasors");
+        }
+        // fraction = ((g - real2) * dx + (s - imag2) * dy) / length2 = a * g + b * s + c
+        final float a = (float) (dx / length2);
+        final float b = (float) (dy / length2);
+        final float c = (float) (-(real2 * dx + imag2 * dy) / length2);
+
+        pool.forEachRows(height, (y0, y1) -> {
+            int start = (int) y0 * width;
+            int end = (int) y1 * width;
+            for (int i = start; i < end; i++) {
+                float f = a * src[srcReal + i] + b * src[srcImag + i] + c;
+                // NaN stays NaN: min and max propagate it
+                dst[dstOff + i] = Math.min(1f, Math.max(0f, f));
+            }
+        });
+    }
+}
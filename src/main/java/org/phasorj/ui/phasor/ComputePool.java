@@ -0,0 +1,139 @@
+package org.phasorj.ui.phasor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A ForkJoin pool sized by a thread budget, used to split per-pixel work into row chunks.
+ * <p>
+ * Every row is computed by exactly one task and no state is shared between rows, so results do
+ * not depend on the number of threads or on how the rows were split.
+ * </p>
+ */
+public class ComputePool {
+
+    /** Number of chunks per thread, so that uneven rows still balance out */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // the pool new calls run on, replaced when the thread budget changes
+    private Workers workers;
+
+    /**
+     * A ForkJoin pool and the number of calls running on it. A replaced pool is shut down once
+     * its last call has returned. Guarded by the ComputePool.
+     */
+    private static final class Workers {
+        final ForkJoinPool pool;
+        final int threads;
+        int calls;
+        boolean replaced;
+
+        Workers(int threads) {
+            this.pool = new ForkJoinPool(threads);
+            this.threads = threads;
+        }
+    }
+
+    /**
+     * Function that processes rows [start, end).
+     */
+    @FunctionalInterface
+    public interface RowTask {
+        void run(long start, long end);
+    }
+
+    /**
+     * Creates a pool using all available processors.
+     */
+    public ComputePool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads the thread budget
+     */
+    public ComputePool(int threads) {
+        setThreads(threads);
+    }
+
+    public synchronized int getThreads() {
+        return workers.threads;
+    }
+
+    /**
+     * Changes the thread budget. Calls already running finish on the old pool, which is shut down
+     * once the last of them returns; later calls run on a new pool.
+     *
+     * @param threads the new number of worker threads, at least 1
+     */
+    public synchronized void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread budget must be at least 1, got " + threads);
+        }
+        if (workers != null && threads == workers.threads) {
+            return;
+        }
+        Workers old = workers;
+        workers = new Workers(threads);
+        if (old != null) {
+            old.replaced = true;
+            if (old.calls == 0) {
+                old.pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Runs the task over rows [0, rows) split into chunks, and waits for all of them.
+     *
+     * @param rows the number of rows
+     * @param task the work for one chunk of rows
+     */
+    public void forEachRows(long rows, RowTask task) {
+        Workers w;
+        synchronized (this) {
+            w = workers;
+            if (w.threads == 1 || rows <= 1) {
+                w = null;
+            } else {
+                w.calls++;
+            }
+        }
+        if (w == null) {
+            task.run(0, rows);
+            return;
+        }
+        try {
+            long grain = Math.max(1, rows / ((long) w.threads * CHUNKS_PER_THREAD));
+            w.pool.invoke(new RowAction(0, rows, grain, task));
+        } finally {
+            synchronized (this) {
+                if (--w.calls == 0 && w.replaced) {
+                    w.pool.shutdown();
+                }
+            }
+        }
+    }
+
+    private static final class RowAction extends RecursiveAction {
+        private final long start, end, grain;
+        private final RowTask task;
+
+        RowAction(long start, long end, long grain, RowTask task) {
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                task.run(start, end);
+                return;
+            }
+            long mid = (start + end) >>> 1;
+            invokeAll(new RowAction(start, mid, grain, task), new RowAction(mid, end, grain, task));
+        }
+    }
+}
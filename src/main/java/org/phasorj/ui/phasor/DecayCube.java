@@ -0,0 +1,111 @@
+package org.phasorj.ui.phasor;
+
+import net.imglib2.img.Img;
+
+/**
+ * Direct access to the decays of an ArrayImg or PlanarImg of FloatType, UnsignedShortType or
+ * UnsignedByteType, in whatever axis order it was loaded. Decays are read straight from the
+ * backing arrays, without a float copy of the image or a RandomAccess per sample. Axes other
+ * than X, Y and lifetime are read at a fixed position, which selects one plane of a Z-stack,
+ * multichannel or time series image.
+ */
+public final class DecayCube {
+
+    private final ArrayPlanes planes;
+    private final int width, height, nBins;
+
+    // steps in planes and within a plane along x, y and the lifetime axis
+    private final int planeX, planeY, planeT;
+    private final int indexX, indexY, indexT;
+    // plane and index of the decay at x = y = 0
+    private final int basePlane, baseIndex;
+
+    private DecayCube(ArrayPlanes planes, long[] dims, int xAxis, int yAxis, int tAxis, long[] position) {
+        this.planes = planes;
+        this.width = (int) dims[xAxis];
+        this.height = (int) dims[yAxis];
+        this.nBins = (int) dims[tAxis];
+
+        long[] planeStep = new long[dims.length];
+        long[] indexStep = new long[dims.length];
+        long step = 1;
+        for (int d = 0; d < dims.length; d++) {
+            if (planes.planar && d == 2) step = 1;
+            if (planes.planar && d >= 2) {
+                planeStep[d] = step;
+            } else {
+                indexStep[d] = step;
+            }
+            step *= dims[d];
+        }
+        planeX = (int) planeStep[xAxis];
+        planeY = (int) planeStep[yAxis];
+        planeT = (int) planeStep[tAxis];
+        indexX = (int) indexStep[xAxis];
+        indexY = (int) indexStep[yAxis];
+        indexT = (int) indexStep[tAxis];
+
+        long plane = 0, index = 0;
+        for (int d = 0; d < dims.length; d++) {
+            if (d == xAxis || d == yAxis || d == tAxis) continue;
+            plane += position[d] * planeStep[d];
+            index += position[d] * indexStep[d];
+        }
+        basePlane = (int) plane;
+        baseIndex = (int) index;
+    }
+
+    /**
+     * @param img   the image as loaded
+     * @param xAxis index of the X axis in {@code img}
+     * @param yAxis index of the Y axis in {@code img}
+     * @param tAxis index of the lifetime axis in {@code img}
+     * @return direct access to the decays, or null if the image layout or pixel type is not
+     * supported and a view has to be used instead
+     */
+    public static DecayCube of(Img<?> img, int xAxis, int yAxis, int tAxis) {
+        return of(img, xAxis, yAxis, tAxis, new long[img.numDimensions()]);
+    }
+
+    /**
+     * @param img      the image as loaded
+     * @param xAxis    index of the X axis in {@code img}
+     * @param yAxis    index of the Y axis in {@code img}
+     * @param tAxis    index of the lifetime axis in {@code img}
+     * @param position position of the decays along the other axes; the X, Y and lifetime
+     *                 entries are ignored
+     * @return direct access to the decays, or null if the image layout or pixel type is not
+     * supported and a view has to be used instead
+     */
+    public static DecayCube of(Img<?> img, int xAxis, int yAxis, int tAxis, long[] position) {
+        if (position.length != img.numDimensions()) {
+            throw new IllegalArgumentException("Expected a " + img.numDimensions() + "D position, got "
+                    + position.length + "D");
+        }
+        ArrayPlanes planes = ArrayPlanes.of(img);
+        if (planes == null) {
+            return null;
+        }
+        return new DecayCube(planes, img.dimensionsAsLongArray(), xAxis, yAxis, tAxis, position);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumBins() {
+        return nBins;
+    }
+
+    /**
+     * Reads the decay at (x, y) into {@code decay}, which must be {@link #getNumBins()} long.
+     */
+    public void read(int x, int y, double[] decay) {
+        planes.readStrided(basePlane + x * planeX + y * planeY, planeT,
+                baseIndex + x * indexX + y * indexY, indexT, decay);
+    }
+}
@@ -0,0 +1,153 @@
+package org.phasorj.ui.phasor;
+
+import java.util.Arrays;
+
+/**
+ * Packed bitmask of the pixels whose intensity lies within a threshold range.
+ * <p>
+ * The pixel indices are sorted by intensity once, so changing the range only flips the bits of
+ * the pixels between the old and the new limits instead of testing every pixel again. Pixels with
+ * a NaN intensity are never set. Not thread-safe: update and read the mask from one thread.
+ * </p>
+ */
+public class IntensityMask {
+
+    private final int size;
+    private final long[] words;
+
+    // valid pixel indices in ascending order of intensity, and the matching intensities
+    private final int[] order;
+    private final float[] sorted;
+
+    // set pixels are order[from] to order[to - 1]
+    private int from, to;
+    private double low = Double.NaN, high = Double.NaN;
+
+    /**
+     * Sorts the pixels by intensity; the mask starts out empty.
+     *
+     * @param intensity array holding the intensity plane
+     * @param offset    offset of the plane in {@code intensity}
+     * @param size      number of pixels in the plane
+     * @param scale     factor applied to the stored values, e.g. the number of time bins to turn
+     *                  a mean intensity into a summed one
+     */
+    public IntensityMask(float[] intensity, int offset, int size, double scale) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+
+        int valid = 0;
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            float v = (float) (intensity[offset + i] * scale);
+            if (Float.isNaN(v)) continue;
+            // pack a sortable key of the intensity with the pixel index in the low bits
+            keys[valid++] = ((long) sortableBits(v) << 32) | i;
+        }
+        Arrays.sort(keys, 0, valid);
+
+        order = new int[valid];
+        sorted = new float[valid];
+        for (int k = 0; k < valid; k++) {
+            order[k] = (int) keys[k];
+            sorted[k] = (float) (intensity[offset + order[k]] * scale);
+        }
+    }
+
+    /**
+     * Maps a float onto an int whose signed order matches the numeric order of the floats.
+     */
+    private static int sortableBits(float v) {
+        int bits = Float.floatToIntBits(v);
+        return bits < 0 ? bits ^ 0x7fffffff : bits;
+    }
+
+    /**
+     * Sets the pixels with {@code low <= intensity <= high} and clears all others.
+     *
+     * @return the number of bits that changed
+     */
+    public int setRange(double low, double high) {
+        int newFrom = lowerBound(low);
+        int newTo = Math.max(newFrom, upperBound(high));
+        this.low = low;
+        this.high = high;
+
+        // the old and new ranges differ between their lower and between their upper limits
+        int changed = flip(Math.min(from, newFrom), Math.max(from, newFrom))
+                + flip(Math.min(to, newTo), Math.max(to, newTo));
+        from = newFrom;
+        to = newTo;
+        return changed;
+    }
+
+    private int flip(int start, int end) {
+        for (int k = start; k < end; k++) {
+            int i = order[k];
+            words[i >>> 6] ^= 1L << i;
+        }
+        return end - start;
+    }
+
+    // first sorted position with an intensity >= value
+    private int lowerBound(double value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // first sorted position with an intensity > value
+    private int upperBound(double value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    public double getLow() {
+        return low;
+    }
+
+    public double getHigh() {
+        return high;
+    }
+
+    /**
+     * @return the number of pixels covered by the mask
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of set pixels
+     */
+    public int cardinality() {
+        return to - from;
+    }
+
+    public boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return the index of the first set pixel at or after {@code index}, or -1 if there is none
+     */
+    public int nextSetBit(int index) {
+        if (index >= size) return -1;
+        int w = index >>> 6;
+        long word = words[w] & (-1L << index);
+        while (word == 0) {
+            if (++w == words.length) return -1;
+            word = words[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+}
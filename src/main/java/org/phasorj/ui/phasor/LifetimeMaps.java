@@ -0,0 +1,54 @@
+package org.phasorj.ui.phasor;
+
+/**
+ * Apparent single-exponential lifetimes of calibrated phasor coordinates, like phasorpy's
+ * {@code phasor_to_apparent_lifetime}:
+ * <pre>
+ * tau_phi = S / (omega * G)
+ * tau_mod = sqrt(1 / (G^2 + S^2) - 1) / omega
+ * </pre>
+ * with omega = 2 * pi * frequency * harmonic. Frequencies are in MHz and lifetimes in ns, as in
+ * {@link PhasorCalibration#lifetimePhasor}. Phasors on the origin, and pixels without a phasor,
+ * give NaN; phasors outside the universal circle give a modulation lifetime of 0.
+ */
+public final class LifetimeMaps {
+
+    private LifetimeMaps() {
+    }
+
+    /**
+     * Computes both lifetime planes. Does not allocate; rows are split over the pool.
+     *
+     * @param src       array holding the calibrated G and S planes
+     * @param srcReal   offset of the G plane in {@code src}
+     * @param srcImag   offset of the S plane in {@code src}
+     * @param dst       array receiving the lifetime planes
+     * @param dstPhase  offset of the phase lifetime plane in {@code dst}
+     * @param dstMod    offset of the modulation lifetime plane in {@code dst}
+     * @param width     plane width
+     * @param height    plane height
+     * @param frequency laser repetition frequency in MHz, times the harmonic
+     * @param pool      the pool the rows are split over
+     */
+    public static void compute(float[] src, int srcReal, int srcImag,
+                               float[] dst, int dstPhase, int dstMod,
+                               int width, int height, double frequency, ComputePool pool) {
+        if (!(frequency > 0)) {
+            throw new IllegalArgumentException("Frequency must be positive, got " + frequency);
+        }
+        // ns per radian
+        final double invOmega = 1 / (2 * Math.PI * frequency * 1e-3);
+        pool.forEachRows(height, (y0, y1) -> {
+            int end = (int) y1 * width;
+            for (int i = (int) y0 * width; i < end; i++) {
+                double g = src[srcReal + i];
+                double s = src[srcImag + i];
+                double mod2 = g * g + s * s;
+                dst[dstPhase + i] = (float) (s / g * invOmega);
+                dst[dstMod + i] = mod2 > 0
+                        ? (float) (Math.sqrt(Math.max(0, 1 / mod2 - 1)) * invOmega)
+                        : Float.NaN;
+            }
+        });
+    }
+}
@@ -0,0 +1,247 @@
+package org.phasorj.ui.phasor;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Square median filter for phasor coordinate planes stored in flat float arrays.
+ * <p>
+ * Like phasorpy's {@code phasor_filter_median}, NaN pixels stay NaN and NaN neighbors are left out
+ * of the median; the window is clipped at the image border. The values of a plane are quantized
+ * to {@value #LEVELS} levels over their range, and each row slides a histogram of levels along x,
+ * Huang style: moving by one pixel removes the column that leaves the window and adds the column
+ * that enters it, 2 * size updates. The median is found in a coarse histogram of
+ * {@value #FINE} levels per bin, searched from where the last median was, then among the fine
+ * levels of one coarse bin, so the cost per pixel does not grow with the window area.
+ * </p>
+ * <p>
+ * Every level also sums the window values it holds, and the median is reported as their mean.
+ * That is the exact median whenever no other window value shares its level, and otherwise off by
+ * less than one level, 1 / 16383 of the range of the plane. G and S of nonnegative decays lie
+ * within [-1, 1] before calibration, so a level is well below the noise of any measurement.
+ * </p>
+ * <p>
+ * Rows are split over the compute pool. An instance keeps the buffers for planes of one size, so
+ * filtering every plane of an entry again allocates nothing.
+ * </p>
+ */
+public final class MedianFilter {
+
+    private static final int FINE_BITS = 6;
+    private static final int FINE = 1 << FINE_BITS;
+    private static final int COARSE = 256;
+    private static final int LEVELS = COARSE * FINE;
+
+    private final int width, height;
+    // quantization level of every pixel of the plane being filtered
+    private final char[] levels;
+    // intermediate plane of repeated filtering, allocated on first use
+    private float[] scratch;
+    // histograms of row chunks that finished, for the next chunks
+    private final ConcurrentLinkedQueue<Window> windows = new ConcurrentLinkedQueue<>();
+
+    /**
+     * A histogram of the quantized values in a window.
+     */
+    private static final class Window {
+        final int[] coarse = new int[COARSE];
+        final int[] fine = new int[LEVELS];
+        // sum of the values at every level
+        final double[] sums = new double[LEVELS];
+        int n;
+        // the coarse bin the median search starts from, and the number of values below it
+        int pivot, below;
+
+        void add(int level, float v) {
+            fine[level]++;
+            sums[level] += v;
+            int c = level >> FINE_BITS;
+            coarse[c]++;
+            // branch free, as the side of the pivot is unpredictable: 1 when c < pivot
+            below += (c - pivot) >>> 31;
+            n++;
+        }
+
+        void remove(int level, float v) {
+            // reset when empty so that rounding does not build up
+            sums[level] = --fine[level] == 0 ? 0 : sums[level] - v;
+            int c = level >> FINE_BITS;
+            coarse[c]--;
+            below -= (c - pivot) >>> 31;
+            n--;
+        }
+
+        /**
+         * @param k rank from 0, less than {@link #n}
+         * @return the mean of the window values at the level of the k-th smallest one
+         */
+        double select(int k) {
+            while (below > k) {
+                pivot--;
+                below -= coarse[pivot];
+            }
+            while (below + coarse[pivot] <= k) {
+                below += coarse[pivot];
+                pivot++;
+            }
+            int level = pivot << FINE_BITS;
+            int rank = below;
+            while (rank + fine[level] <= k) {
+                rank += fine[level];
+                level++;
+            }
+            return sums[level] / fine[level];
+        }
+    }
+
+    /**
+     * @param width  plane width
+     * @param height plane height
+     */
+    public MedianFilter(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.levels = new char[width * height];
+    }
+
+    /**
+     * Filters one plane with buffers for this call only. Keep an instance instead when planes of
+     * the same size are filtered again.
+     *
+     * @param src    array holding the input plane
+     * @param srcOff offset of the plane in {@code src}
+     * @param dst    array receiving the output plane, must not overlap the input plane
+     * @param dstOff offset of the plane in {@code dst}
+     * @param width  plane width
+     * @param height plane height
+     * @param size   edge length of the window, odd
+     * @param repeat number of times the filter is applied
+     * @param pool   the pool the rows are split over
+     */
+    public static void apply(float[] src, int srcOff, float[] dst, int dstOff,
+                             int width, int height, int size, int repeat, ComputePool pool) {
+        new MedianFilter(width, height).apply(src, srcOff, dst, dstOff, size, repeat, pool);
+    }
+
+    /**
+     * Filters one plane. Planes are filtered one at a time, as they share the buffers.
+     *
+     * @param src    array holding the input plane
+     * @param srcOff offset of the plane in {@code src}
+     * @param dst    array receiving the output plane, must not overlap the input plane
+     * @param dstOff offset of the plane in {@code dst}
+     * @param size   edge length of the window, odd
+     * @param repeat number of times the filter is applied
+     * @param pool   the pool the rows are split over
+     */
+    public void apply(float[] src, int srcOff, float[] dst, int dstOff, int size, int repeat, ComputePool pool) {
+        if (size < 1 || size % 2 == 0) {
+            throw new IllegalArgumentException("Median filter size must be odd and positive, got " + size);
+        }
+        if (repeat < 1) {
+            throw new IllegalArgumentException("Median filter repeat must be at least 1, got " + repeat);
+        }
+        if (repeat > 1 && scratch == null) {
+            scratch = new float[width * height];
+        }
+
+        // ping-pong between dst and the scratch plane so that the last pass lands in dst
+        float[] in = src;
+        int inOff = srcOff;
+        for (int r = 0; r < repeat; r++) {
+            boolean toDst = (repeat - 1 - r) % 2 == 0;
+            float[] out = toDst ? dst : scratch;
+            int outOff = toDst ? dstOff : 0;
+            filterPlane(in, inOff, out, outOff, size / 2, pool);
+            in = out;
+            inOff = outOff;
+        }
+    }
+
+    private void filterPlane(float[] src, int srcOff, float[] dst, int dstOff, int radius, ComputePool pool) {
+        int plane = width * height;
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        for (int i = srcOff; i < srcOff + plane; i++) {
+            float v = src[i];
+            if (Float.isFinite(v)) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        if (min > max) {
+            min = max = 0;
+        }
+        float lo = min;
+        double scale = max > min ? (LEVELS - 1) / ((double) max - min) : 0;
+        pool.forEachRows(height, (y0, y1) -> {
+            for (int i = (int) y0 * width; i < y1 * width; i++) {
+                float v = src[srcOff + i];
+                // infinities go to the first or last level
+                levels[i] = Float.isNaN(v) ? 0 : (char) Math.max(0, Math.min(LEVELS - 1, (v - lo) * scale));
+            }
+        });
+
+        pool.forEachRows(height, (y0, y1) -> {
+            Window window = windows.poll();
+            if (window == null) {
+                window = new Window();
+            }
+            for (int y = (int) y0; y < y1; y++) {
+                filterRow(src, srcOff, dst, dstOff, radius, y, window);
+            }
+            windows.add(window);
+        });
+    }
+
+    private void filterRow(float[] src, int srcOff, float[] dst, int dstOff, int radius, int y, Window window) {
+        int top = Math.max(0, y - radius);
+        int bottom = Math.min(height - 1, y + radius);
+
+        // window for x = 0 holds columns [0, radius]
+        for (int x = 0; x <= Math.min(radius, width - 1); x++) {
+            addColumn(src, srcOff, x, top, bottom, window);
+        }
+
+        for (int x = 0; x < width; x++) {
+            int i = y * width + x;
+            int n = window.n;
+            if (Float.isNaN(src[srcOff + i]) || n == 0) {
+                dst[dstOff + i] = Float.NaN;
+            } else if (n % 2 == 1) {
+                dst[dstOff + i] = (float) window.select(n / 2);
+            } else {
+                dst[dstOff + i] = (float) ((window.select(n / 2 - 1) + window.select(n / 2)) / 2);
+            }
+
+            int leaving = x - radius;
+            int entering = x + radius + 1;
+            if (leaving >= 0) {
+                removeColumn(src, srcOff, leaving, top, bottom, window);
+            }
+            if (entering < width) {
+                addColumn(src, srcOff, entering, top, bottom, window);
+            }
+        }
+        // empty the window for the next row
+        for (int x = Math.max(0, width - radius); x < width; x++) {
+            removeColumn(src, srcOff, x, top, bottom, window);
+        }
+    }
+
+    private void addColumn(float[] src, int srcOff, int x, int top, int bottom, Window window) {
+        for (int i = top * width + x; i <= bottom * width + x; i += width) {
+            float v = src[srcOff + i];
+            if (!Float.isNaN(v)) {
+                window.add(levels[i], v);
+            }
+        }
+    }
+
+    private void removeColumn(float[] src, int srcOff, int x, int top, int bottom, Window window) {
+        for (int i = top * width + x; i <= bottom * width + x; i += width) {
+            float v = src[srcOff + i];
+            if (!Float.isNaN(v)) {
+                window.remove(levels[i], v);
+            }
+        }
+    }
+}
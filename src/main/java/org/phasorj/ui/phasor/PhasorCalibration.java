@@ -0,0 +1,68 @@
+package org.phasorj.ui.phasor;
+
+/**
+ * Calibration transforms applied to phasor coordinates stored in flat float arrays.
+ * <p>
+ * The G and S planes of an image are addressed by an array and an offset, so that the planes of
+ * the X x Y x C images kept by DataClass can be read and written in place.
+ * </p>
+ */
+public final class PhasorCalibration {
+
+    private PhasorCalibration() {
+    }
+
+    /**
+     * Rotates and scales phasor coordinates like phasorpy's {@code phasor_transform}:
+     * <pre>
+     * G' = m * (G cos(phi) - S sin(phi))
+     * S' = m * (G sin(phi) + S cos(phi))
+     * </pre>
+     * Does not allocate per pixel; source and destination may be the same array.
+     *
+     * @param src        array holding the input G and S planes
+     * @param srcReal    offset of the G plane in {@code src}
+     * @param srcImag    offset of the S plane in {@code src}
+     * @param dst        array receiving the output G and S planes
+     * @param dstReal    offset of the G plane in {@code dst}
+     * @param dstImag    offset of the S plane in {@code dst}
+     * @param width      plane width
+     * @param height     plane height
+     * @param phase      rotation angle phi in radians
+     * @param modulation scale factor m
+     * @param pool       the pool the rows are split over
+     */
+    public static void transform(float[] src, int srcReal, int srcImag,
+                                 float[] dst, int dstReal, int dstImag,
+                                 int width, int height,
+                                 double phase, double modulation,
+                                 ComputePool pool) {
+        final float a = (float) (modulation * Math.cos(phase));
+        final float b = (float) (modulation * Math.sin(phase));
+
+        pool.forEachRows(height, (y0, y1) -> {
+            int start = (int) y0 * width;
+            int end = (int) y1 * width;
+            for (int i = start; i < end; i++) {
+                float g = src[srcReal + i];
+                float s = src[srcImag + i];
+                dst[dstReal + i] = a * g - b * s;
+                dst[dstImag + i] = b * g + a * s;
+            }
+        });
+    }
+
+    /**
+     * Phasor coordinates of a single-exponential decay, like phasorpy's
+     * {@code phasor_from_lifetime} with its default unit conversion.
+     *
+     * @param frequency laser repetition frequency in MHz (times the harmonic)
+     * @param lifetime  lifetime in ns
+     * @return {real, imag}
+     */
+    public static double[] lifetimePhasor(double frequency, double lifetime) {
+        double omegaTau = 2 * Math.PI * frequency * lifetime * 1e-3;
+        double denom = 1 + omegaTau * omegaTau;
+        return new double[]{1 / denom, omegaTau / denom};
+    }
+}
@@ -0,0 +1,34 @@
+package org.phasorj.ui.phasor;
+
+/**
+ * Inner loop of the phasor transform: reduces one decay to sum(I), sum(I * cos) and
+ * sum(I * sin).
+ */
+public interface PhasorKernel {
+
+    /**
+     * @param decay    the decay samples
+     * @param cosTable cos of the phase of every sample
+     * @param sinTable sin of the phase of every sample
+     * @param sums     receives the DC, real and imaginary sums
+     */
+    void accumulate(double[] decay, double[] cosTable, double[] sinTable, double[] sums);
+
+    /**
+     * @return the plain Java kernel
+     */
+    static PhasorKernel scalar() {
+        return ScalarPhasorKernel.INSTANCE;
+    }
+
+    /**
+     * Picks the Vector API kernel when the {@code jdk.incubator.vector} module is available
+     * (i.e. the JVM was started with {@code --add-modules jdk.incubator.vector}) and the hardware
+     * has vectors wider than one double. Falls back to {@link #scalar()} otherwise.
+     *
+     * @return the fastest kernel usable in this JVM
+     */
+    static PhasorKernel best() {
+        return PhasorKernels.BEST;
+    }
+}
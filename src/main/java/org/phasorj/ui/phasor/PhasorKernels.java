@@ -0,0 +1,28 @@
+package org.phasorj.ui.phasor;
+
+/**
+ * Runtime selection of the best available {@link PhasorKernel}, see {@link PhasorKernel#best()}.
+ */
+final class PhasorKernels {
+
+    static final PhasorKernel BEST = selectBest();
+
+    private PhasorKernels() {
+    }
+
+    private static PhasorKernel selectBest() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return PhasorKernel.scalar();
+        }
+        // loaded reflectively so that no other class links against the incubator module
+        try {
+            Class<?> vector = Class.forName("org.phasorj.ui.phasor.VectorPhasorKernel");
+            if ((Integer) vector.getDeclaredMethod("lanes").invoke(null) <= 1) {
+                return PhasorKernel.scalar();
+            }
+            return (PhasorKernel) vector.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return PhasorKernel.scalar();
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package org.phasorj.ui.phasor;
+
+import java.util.Arrays;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Java equivalent of phasorpy's {@code phasor_from_signal}.
+ * <p>
+ * Reads a 3D (X, Y, lifetime) FLIM view directly and writes the mean intensity and the
+ * normalized phasor coordinates into a float image with the same layout as the old
+ * phasor_fiji.py output: channel 0 = mean, 1 = real (G), 2 = imag (S). With several harmonics,
+ * every decay is read once and reduced at all of them, G and S of the i-th harmonic going to
+ * channels {@link #realChannel(int)} and {@link #imagChannel(int)}.
+ * </p>
+ */
+public class PhasorTransform {
+
+    public static final int MEAN = 0;
+    public static final int REAL = 1;
+    public static final int IMAG = 2;
+
+    private final int nBins;
+    private final int[] harmonics;
+
+    // cos/sin of 2*pi*harmonic*t/nBins for every harmonic and time bin
+    private final double[][] cosTables;
+    private final double[][] sinTables;
+
+    private final PhasorKernel kernel;
+
+    /**
+     * Creates a transform using the best kernel available, see {@link PhasorKernel#best()}.
+     *
+     * @param nBins    number of samples along the lifetime axis
+     * @param harmonic the harmonic to compute, in [1, nBins / 2] like phasorpy
+     */
+    public PhasorTransform(int nBins, int harmonic) {
+        this(nBins, new int[]{harmonic});
+    }
+
+    /**
+     * @param nBins    number of samples along the lifetime axis
+     * @param harmonic the harmonic to compute, in [1, nBins / 2] like phasorpy
+     * @param kernel   the inner loop implementation
+     */
+    public PhasorTransform(int nBins, int harmonic, PhasorKernel kernel) {
+        this(nBins, new int[]{harmonic}, kernel);
+    }
+
+    /**
+     * Creates a transform using the best kernel available, see {@link PhasorKernel#best()}.
+     *
+     * @param nBins     number of samples along the lifetime axis
+     * @param harmonics the harmonics to compute, each in [1, nBins / 2]
+     */
+    public PhasorTransform(int nBins, int[] harmonics) {
+        this(nBins, harmonics, PhasorKernel.best());
+    }
+
+    /**
+     * @param nBins     number of samples along the lifetime axis
+     * @param harmonics the harmonics to compute, each in [1, nBins / 2]
+     * @param kernel    the inner loop implementation
+     */
+    public PhasorTransform(int nBins, int[] harmonics, PhasorKernel kernel) {
+        if (nBins < 3) {
+            throw new IllegalArgumentException("Need at least 3 time bins, got " + nBins);
+        }
+        if (harmonics.length == 0) {
+            throw new IllegalArgumentException("Need at least one harmonic");
+        }
+        for (int harmonic : harmonics) {
+            if (harmonic < 1 || harmonic > nBins / 2) {
+                throw new IllegalArgumentException("Harmonic " + harmonic + " out of range [1, " + nBins / 2 + "]");
+            }
+        }
+        this.nBins = nBins;
+        this.harmonics = harmonics.clone();
+        this.kernel = kernel;
+        this.cosTables = new double[harmonics.length][nBins];
+        this.sinTables = new double[harmonics.length][nBins];
+        for (int h = 0; h < harmonics.length; h++) {
+            for (int t = 0; t < nBins; t++) {
+                double phi = 2 * Math.PI * harmonics[h] * t / nBins;
+                cosTables[h][t] = Math.cos(phi);
+                sinTables[h][t] = Math.sin(phi);
+            }
+        }
+    }
+
+    /**
+     * @return the number of output channels for the given number of harmonics
+     */
+    public static int channels(int nHarmonics) {
+        return 1 + 2 * nHarmonics;
+    }
+
+    /**
+     * @param index position of the harmonic in {@link #getHarmonics()}
+     * @return the output channel of its real part (G)
+     */
+    public static int realChannel(int index) {
+        return REAL + 2 * index;
+    }
+
+    /**
+     * @param index position of the harmonic in {@link #getHarmonics()}
+     * @return the output channel of its imaginary part (S)
+     */
+    public static int imagChannel(int index) {
+        return IMAG + 2 * index;
+    }
+
+    public int getNumBins() {
+        return nBins;
+    }
+
+    public int[] getHarmonics() {
+        return harmonics.clone();
+    }
+
+    /**
+     * @return true if this transform computes exactly these harmonics, in this order
+     */
+    public boolean hasHarmonics(int[] harmonics) {
+        return Arrays.equals(this.harmonics, harmonics);
+    }
+
+    public PhasorKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Computes mean, G and S of a FLIM view into a newly allocated X x Y x C float image, with
+     * C = {@link #channels(int)} of the number of harmonics.
+     *
+     * @param flim the decay data with X, Y and lifetime on axes 0, 1 and 2
+     * @param pool the pool the rows are split over
+     * @return the phasor image (mean, then real and imag of every harmonic along axis 2)
+     */
+    public <T extends RealType<T>> ArrayImg<FloatType, FloatArray> transform(RandomAccessibleInterval<T> flim,
+                                                                            ComputePool pool) {
+        ArrayImg<FloatType, FloatArray> out = ArrayImgs.floats(flim.dimension(0), flim.dimension(1),
+                channels(harmonics.length));
+        transform(flim, out, pool);
+        return out;
+    }
+
+    /**
+     * Computes mean, G and S of a FLIM view into a preallocated X x Y x C float image.
+     *
+     * @param flim the decay data with X, Y and lifetime on axes 0, 1 and 2
+     * @param out  the destination, mean then real/imag of every harmonic along axis 2
+     * @param pool the pool the rows are split over
+     */
+    public <T extends RealType<T>> void transform(RandomAccessibleInterval<T> flim,
+                                                 RandomAccessibleInterval<FloatType> out,
+                                                 ComputePool pool) {
+        if (flim.numDimensions() != 3 || flim.dimension(2) != nBins) {
+            throw new IllegalArgumentException("Expected an X, Y, lifetime view with " + nBins + " time bins");
+        }
+        int nChannels = channels(harmonics.length);
+        if (out.dimension(0) != flim.dimension(0) || out.dimension(1) != flim.dimension(1)
+                || out.dimension(2) != nChannels) {
+            throw new IllegalArgumentException("Output must be " + flim.dimension(0) + " x "
+                    + flim.dimension(1) + " x " + nChannels);
+        }
+
+        pool.forEachRows(flim.dimension(1), (y0, y1) -> transformRows(flim, out, y0, y1));
+    }
+
+    /**
+     * Computes mean, G and S reading the decays straight from the arrays of the loaded image,
+     * into a newly allocated X x Y x C float image.
+     *
+     * @param cube the decay data
+     * @param pool the pool the rows are split over
+     * @return the phasor image (mean, then real and imag of every harmonic along axis 2)
+     */
+    public ArrayImg<FloatType, FloatArray> transform(DecayCube cube, ComputePool pool) {
+        ArrayImg<FloatType, FloatArray> out = ArrayImgs.floats(cube.getWidth(), cube.getHeight(),
+                channels(harmonics.length));
+        transform(cube, out.update(null).getCurrentStorageArray(), 0, pool);
+        return out;
+    }
+
+    /**
+     * Computes mean, G and S reading the decays straight from the arrays of the loaded image,
+     * into C planes of {@code cube.getWidth() * cube.getHeight()} floats of a preallocated array,
+     * e.g. one plane of a Z-stack among the results of all planes.
+     *
+     * @param cube      the decay data
+     * @param dst       the destination, mean then real/imag of every harmonic
+     * @param dstOffset the offset of the first channel in {@code dst}
+     * @param pool      the pool the rows are split over
+     */
+    public void transform(DecayCube cube, float[] dst, int dstOffset, ComputePool pool) {
+        transformCube(cube, dst, dstOffset, cube.getWidth(), cube.getHeight(), 0, 0, pool);
+    }
+
+    /**
+     * Computes mean, G and S of a FLIM view tile by tile, for images that do not fit in memory,
+     * e.g. cell images opened lazily by SCIFIO, without knowing their cell layout; see
+     * {@link #transformTiled(RandomAccessibleInterval, int[], float[], int, long, Runnable, ComputePool)}.
+     *
+     * @param flim        the decay data with X, Y and lifetime on axes 0, 1 and 2
+     * @param budgetBytes the memory the buffers of one tile may use
+     * @param pool        the pool the rows of each tile are split over
+     * @return the phasor image (mean, then real and imag of every harmonic along axis 2)
+     */
+    public <T extends RealType<T>> ArrayImg<FloatType, FloatArray> transformTiled(RandomAccessibleInterval<T> flim,
+                                                                                 long budgetBytes,
+                                                                                 ComputePool pool) {
+        ArrayImg<FloatType, FloatArray> out = ArrayImgs.floats(flim.dimension(0), flim.dimension(1),
+                channels(harmonics.length));
+        transformTiled(flim, null, out.update(null).getCurrentStorageArray(), 0, budgetBytes, () -> {}, pool);
+        return out;
+    }
+
+    /**
+     * Computes mean, G and S of a FLIM view tile by tile into C planes of X x Y floats of a
+     * preallocated array, for images that do not fit in memory.
+     * <p>
+     * Tiles are made of whole cells of the source in X and Y, and every tile is read in slabs one
+     * cell deep along the lifetime axis, whose decays are added onto running sums per pixel. Each
+     * slab covers whole cells that no other slab touches, so every cell is loaded from the file
+     * once, and {@code releaseCells} can drop it from the source's cache right after.
+     * </p>
+     * <p>
+     * The budget covers the copy buffer of one slab, the samples of the cells it was read from,
+     * counted as floats, and the double sums of one tile. It does not cover cells the source's
+     * cache keeps after {@code releaseCells}, nor the X x Y x C result. A tile holds at least one
+     * cell, even when that exceeds the budget.
+     * </p>
+     *
+     * @param flim         the decay data with X, Y and lifetime on axes 0, 1 and 2
+     * @param cellSize     the cell size of the source along X, Y and lifetime, or null when
+     *                     unknown, which reads tiles of whole rows and all time bins
+     * @param dst          the destination, mean then real/imag of every harmonic
+     * @param dstOffset    the offset of the first channel in {@code dst}
+     * @param budgetBytes  the memory the buffers of one tile may use, see above
+     * @param releaseCells run after every slab, e.g. to invalidate the cells read from the cache
+     * @param pool         the pool the rows of each slab are split over
+     */
+    public <T extends RealType<T>> void transformTiled(RandomAccessibleInterval<T> flim, int[] cellSize,
+                                                      float[] dst, int dstOffset, long budgetBytes,
+                                                      Runnable releaseCells, ComputePool pool) {
+        if (flim.numDimensions() != 3 || flim.dimension(2) != nBins) {
+            throw new IllegalArgumentException("Expected an X, Y, lifetime view with " + nBins + " time bins");
+        }
+        int width = (int) flim.dimension(0);
+        int height = (int) flim.dimension(1);
+        int cellW = cellSize == null ? 1 : Math.max(1, Math.min(width, cellSize[0]));
+        int cellH = cellSize == null ? 1 : Math.max(1, Math.min(height, cellSize[1]));
+        int depth = cellSize == null ? nBins : Math.max(1, Math.min(nBins, cellSize[2]));
+        int nChannels = channels(harmonics.length);
+
+        // per pixel of a tile: the slab buffer, the cells it was copied from and the sums
+        long pixelBytes = 2L * depth * Float.BYTES + (long) nChannels * Double.BYTES;
+        long budgetCells = Math.max(1, budgetBytes / pixelBytes / ((long) cellW * cellH));
+        // whole cells, full rows of cells first
+        int cellsX = (width + cellW - 1) / cellW;
+        int cellsY = (height + cellH - 1) / cellH;
+        int tileCellsX = (int) Math.min(cellsX, budgetCells);
+        int tileCellsY = (int) Math.max(1, Math.min(cellsY, budgetCells / tileCellsX));
+        int tileW = Math.min(width, tileCellsX * cellW);
+        int tileH = Math.min(height, tileCellsY * cellH);
+        if ((long) tileW * tileH * Math.max(depth, nChannels) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A cell of " + cellW + " x " + cellH + " x " + depth
+                    + " is too large to buffer");
+        }
+        float[] buffer = new float[tileW * tileH * depth];
+        double[] sums = new double[tileW * tileH * nChannels];
+
+        for (int y0 = 0; y0 < height; y0 += tileH) {
+            for (int x0 = 0; x0 < width; x0 += tileW) {
+                int w = Math.min(tileW, width - x0);
+                int h = Math.min(tileH, height - y0);
+                Arrays.fill(sums, 0, w * h * nChannels, 0);
+                for (int t0 = 0; t0 < nBins; t0 += depth) {
+                    int d = Math.min(depth, nBins - t0);
+                    copySlab(flim, x0, y0, t0, w, h, d, buffer, pool);
+                    accumulateSlab(buffer, w, h, t0, d, sums, pool);
+                    releaseCells.run();
+                }
+                storeTile(sums, w, h, dst, dstOffset, width, height, x0, y0);
+            }
+        }
+    }
+
+    /**
+     * Copies the decays of a slab, time bin after time bin, into the buffer, split over rows.
+     */
+    private static <T extends RealType<T>> void copySlab(RandomAccessibleInterval<T> flim, int x0, int y0, int t0,
+                                                         int w, int h, int d, float[] buffer,
+                                                         ComputePool pool) {
+        int plane = w * h;
+        pool.forEachRows(h, (r0, r1) -> {
+            RandomAccess<T> ra = flim.randomAccess();
+            for (int y = (int) r0; y < r1; y++) {
+                for (int x = 0; x < w; x++) {
+                    ra.setPosition(flim.min(0) + x0 + x, 0);
+                    ra.setPosition(flim.min(1) + y0 + y, 1);
+                    ra.setPosition(flim.min(2) + t0, 2);
+                    int i = y * w + x;
+                    for (int t = 0; t < d; t++) {
+                        buffer[t * plane + i] = ra.get().getRealFloat();
+                        ra.fwd(2);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds the DC, real and imaginary parts of time bins [t0, t0 + d) of every decay in the slab
+     * onto the sums, channel after channel like the output.
+     */
+    private void accumulateSlab(float[] buffer, int w, int h, int t0, int d, double[] sums, ComputePool pool) {
+        int plane = w * h;
+        pool.forEachRows(h, (r0, r1) -> {
+            int i0 = (int) r0 * w;
+            int i1 = (int) r1 * w;
+            for (int t = 0; t < d; t++) {
+                int src = t * plane;
+                for (int i = i0; i < i1; i++) {
+                    sums[MEAN * plane + i] += buffer[src + i];
+                }
+                for (int k = 0; k < harmonics.length; k++) {
+                    double c = cosTables[k][t0 + t];
+                    double s = sinTables[k][t0 + t];
+                    int re = realChannel(k) * plane;
+                    int im = imagChannel(k) * plane;
+                    for (int i = i0; i < i1; i++) {
+                        double v = buffer[src + i];
+                        sums[re + i] += v * c;
+                        sums[im + i] += v * s;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Normalizes the sums of a tile like {@link #store} and writes them into {@code dst}, an
+     * image of {@code outWidth} x {@code outHeight} pixels, with the tile placed at (x0, y0).
+     */
+    private void storeTile(double[] sums, int w, int h, float[] dst, int dstOffset,
+                           int outWidth, int outHeight, int x0, int y0) {
+        int tilePlane = w * h;
+        int plane = outWidth * outHeight;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int j = y * w + x;
+                int i = dstOffset + (y0 + y) * outWidth + x0 + x;
+                double dc = sums[MEAN * tilePlane + j];
+                dst[MEAN * plane + i] = (float) (dc / nBins);
+                for (int k = 0; k < harmonics.length; k++) {
+                    dst[realChannel(k) * plane + i] = (float) (sums[realChannel(k) * tilePlane + j] / dc);
+                    dst[imagChannel(k) * plane + i] = (float) (sums[imagChannel(k) * tilePlane + j] / dc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Transforms every decay of the cube into the channels of {@code dst}, an image of
+     * {@code outWidth} x {@code outHeight} pixels starting at {@code dstOffset}, with the cube
+     * placed at (x0, y0).
+     */
+    private void transformCube(DecayCube cube, float[] dst, int dstOffset, int outWidth, int outHeight,
+                               int x0, int y0, ComputePool pool) {
+        if (cube.getNumBins() != nBins) {
+            throw new IllegalArgumentException("Expected " + nBins + " time bins, got " + cube.getNumBins());
+        }
+        int width = cube.getWidth();
+        int plane = outWidth * outHeight;
+
+        pool.forEachRows(cube.getHeight(), (r0, r1) -> {
+            double[] decay = new double[nBins];
+            double[][] sums = new double[harmonics.length][3];
+            for (int y = (int) r0; y < r1; y++) {
+                for (int x = 0; x < width; x++) {
+                    cube.read(x, y, decay);
+                    accumulate(decay, sums);
+
+                    int i = dstOffset + (y0 + y) * outWidth + x0 + x;
+                    double dc = sums[0][0];
+                    dst[MEAN * plane + i] = (float) (dc / nBins);
+                    for (int h = 0; h < harmonics.length; h++) {
+                        dst[realChannel(h) * plane + i] = (float) (sums[h][1] / dc);
+                        dst[imagChannel(h) * plane + i] = (float) (sums[h][2] / dc);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes rows [y0, y1). Each call uses its own accessors and buffers, so chunks can run
+     * concurrently.
+     */
+    private <T extends RealType<T>> void transformRows(RandomAccessibleInterval<T> flim,
+                                                      RandomAccessibleInterval<FloatType> out,
+                                                      long y0, long y1) {
+        RandomAccess<T> inRA = flim.randomAccess();
+        RandomAccess<FloatType> outRA = out.randomAccess();
+        double[] decay = new double[nBins];
+        double[][] sums = new double[harmonics.length][3];
+
+        for (long y = y0; y < y1; y++) {
+            for (long x = 0; x < flim.dimension(0); x++) {
+                inRA.setPosition(flim.min(0) + x, 0);
+                inRA.setPosition(flim.min(1) + y, 1);
+                inRA.setPosition(flim.min(2), 2);
+                for (int t = 0; t < nBins; t++) {
+                    decay[t] = inRA.get().getRealDouble();
+                    inRA.fwd(2);
+                }
+
+                accumulate(decay, sums);
+
+                outRA.setPosition(out.min(0) + x, 0);
+                outRA.setPosition(out.min(1) + y, 1);
+                store(outRA, out.min(2), sums);
+            }
+        }
+    }
+
+    /**
+     * Reduces one decay to sum(I), sum(I * cos) and sum(I * sin) at every harmonic. The decay
+     * is read from memory once and stays in cache for the following harmonics.
+     *
+     * @param decay the decay, {@link #getNumBins()} long
+     * @param sums  receives the DC, real and imaginary sums of every harmonic
+     */
+    void accumulate(double[] decay, double[][] sums) {
+        for (int h = 0; h < harmonics.length; h++) {
+            kernel.accumulate(decay, cosTables[h], sinTables[h], sums[h]);
+        }
+    }
+
+    /**
+     * Normalizes the sums like phasorpy does: mean = DC / n, G = re / DC, S = im / DC.
+     * Pixels without signal end up as NaN, as they do in numpy.
+     */
+    private void store(RandomAccess<FloatType> outRA, long channelMin, double[][] sums) {
+        double dc = sums[0][0];
+        outRA.setPosition(channelMin + MEAN, 2);
+        outRA.get().setReal(dc / nBins);
+        for (int h = 0; h < harmonics.length; h++) {
+            outRA.setPosition(channelMin + realChannel(h), 2);
+            outRA.get().setReal(sums[h][1] / dc);
+            outRA.setPosition(channelMin + imagChannel(h), 2);
+            outRA.get().setReal(sums[h][2] / dc);
+        }
+    }
+}
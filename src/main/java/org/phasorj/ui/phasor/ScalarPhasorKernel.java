@@ -0,0 +1,31 @@
+package org.phasorj.ui.phasor;
+
+/**
+ * Plain Java {@link PhasorKernel}.
+ */
+final class ScalarPhasorKernel implements PhasorKernel {
+
+    static final ScalarPhasorKernel INSTANCE = new ScalarPhasorKernel();
+
+    private ScalarPhasorKernel() {
+    }
+
+    @Override
+    public void accumulate(double[] decay, double[] cosTable, double[] sinTable, double[] sums) {
+        double dc = 0, re = 0, im = 0;
+        for (int t = 0; t < decay.length; t++) {
+            double v = decay[t];
+            dc += v;
+            re += v * cosTable[t];
+            im += v * sinTable[t];
+        }
+        sums[0] = dc;
+        sums[1] = re;
+        sums[2] = im;
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,151 @@
+package org.phasorj.ui.phasor;
+
+/**
+ * Square spatial binning of a phasor plane, equivalent to summing the decays of the
+ * (2 * radius + 1)^2 neighborhood of every pixel before the phasor transform.
+ * <p>
+ * The transform is linear, so the binned phasor follows from the binned moments: with m the
+ * mean intensity, the window sums of m, m * G and m * S give G = sum(m * G) / sum(m) and
+ * S = sum(m * S) / sum(m). The window sums are read from summed-area tables of the three
+ * moments, four lookups per pixel, so the cost does not depend on the radius and no decay has to
+ * be read again. The window is clipped at the image border, pixels with a NaN moment add
+ * nothing, and pixels whose window has no signal end up as NaN. Rows, and columns while building
+ * the tables, are split over the compute pool.
+ * </p>
+ * <p>
+ * The tables only depend on the unbinned phasor, so an instance is built once per plane and
+ * harmonic and kept for every radius; changing the radius only runs the window lookups again.
+ * The tables take 24 bytes per pixel.
+ * </p>
+ */
+public final class SpatialBinning {
+
+    private final int width, height;
+    // summed-area tables of m, m * G and m * S, interleaved, with a zero first row and column:
+    // (width + 1) x (height + 1) entries of three
+    private final double[] sat;
+
+    /**
+     * Builds the tables of one plane.
+     *
+     * @param src     array holding the unbinned phasor
+     * @param srcMean offset of the mean intensity plane in {@code src}
+     * @param srcReal offset of the real (G) plane in {@code src}
+     * @param srcImag offset of the imaginary (S) plane in {@code src}
+     * @param width   plane width
+     * @param height  plane height
+     * @param pool    the pool the work is split over
+     */
+    public SpatialBinning(float[] src, int srcMean, int srcReal, int srcImag,
+                          int width, int height, ComputePool pool) {
+        this.width = width;
+        this.height = height;
+        int stride = 3 * (width + 1);
+        double[] sat = new double[stride * (height + 1)];
+        this.sat = sat;
+
+        pool.forEachRows(height, (y0, y1) -> {
+            for (int y = (int) y0; y < y1; y++) {
+                double m = 0, mg = 0, ms = 0;
+                int row = (y + 1) * stride + 3;
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    float mean = src[srcMean + i];
+                    float g = src[srcReal + i];
+                    float s = src[srcImag + i];
+                    if (!Float.isNaN(mean) && !Float.isNaN(g) && !Float.isNaN(s)) {
+                        m += mean;
+                        mg += mean * g;
+                        ms += mean * s;
+                    }
+                    int at = row + 3 * x;
+                    sat[at] = m;
+                    sat[at + 1] = mg;
+                    sat[at + 2] = ms;
+                }
+            }
+        });
+        // column sums, each chunk of columns running down all rows
+        pool.forEachRows(width, (x0, x1) -> {
+            for (int y = 2; y <= height; y++) {
+                int row = y * stride;
+                int prev = row - stride;
+                for (int at = 3 * ((int) x0 + 1); at < 3 * ((int) x1 + 1); at++) {
+                    sat[row + at] += sat[prev + at];
+                }
+            }
+        });
+    }
+
+    /**
+     * Bins one plane, building the tables for this call only. Keep an instance instead when the
+     * same plane is binned at several radii.
+     *
+     * @param src       array holding the unbinned phasor
+     * @param srcMean   offset of the mean intensity plane in {@code src}
+     * @param srcReal   offset of the real (G) plane in {@code src}
+     * @param srcImag   offset of the imaginary (S) plane in {@code src}
+     * @param dst       array receiving the binned phasor, must not overlap the input planes
+     * @param dstReal   offset of the binned real plane in {@code dst}
+     * @param dstImag   offset of the binned imaginary plane in {@code dst}
+     * @param width     plane width
+     * @param height    plane height
+     * @param radius    half the window edge, 0 copies G and S
+     * @param pool      the pool the work is split over
+     */
+    public static void apply(float[] src, int srcMean, int srcReal, int srcImag,
+                             float[] dst, int dstReal, int dstImag,
+                             int width, int height, int radius, ComputePool pool) {
+        if (radius == 0) {
+            System.arraycopy(src, srcReal, dst, dstReal, width * height);
+            System.arraycopy(src, srcImag, dst, dstImag, width * height);
+            return;
+        }
+        checkRadius(radius);
+        new SpatialBinning(src, srcMean, srcReal, srcImag, width, height, pool)
+                .apply(dst, dstReal, dstImag, radius, pool);
+    }
+
+    /**
+     * Bins the plane the tables were built from.
+     *
+     * @param dst     array receiving the binned phasor
+     * @param dstReal offset of the binned real plane in {@code dst}
+     * @param dstImag offset of the binned imaginary plane in {@code dst}
+     * @param radius  half the window edge, at least 1
+     * @param pool    the pool the rows are split over
+     */
+    public void apply(float[] dst, int dstReal, int dstImag, int radius, ComputePool pool) {
+        checkRadius(radius);
+        int stride = 3 * (width + 1);
+        pool.forEachRows(height, (y0, y1) -> {
+            for (int y = (int) y0; y < y1; y++) {
+                int top = Math.max(0, y - radius) * stride;
+                int bottom = Math.min(height, y + radius + 1) * stride;
+                for (int x = 0; x < width; x++) {
+                    int left = 3 * Math.max(0, x - radius);
+                    int right = 3 * Math.min(width, x + radius + 1);
+                    double m = windowSum(top, bottom, left, right);
+                    int i = y * width + x;
+                    if (m == 0) {
+                        dst[dstReal + i] = Float.NaN;
+                        dst[dstImag + i] = Float.NaN;
+                    } else {
+                        dst[dstReal + i] = (float) (windowSum(top + 1, bottom + 1, left, right) / m);
+                        dst[dstImag + i] = (float) (windowSum(top + 2, bottom + 2, left, right) / m);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void checkRadius(int radius) {
+        if (radius < 1) {
+            throw new IllegalArgumentException("Bin radius must be positive, got " + radius);
+        }
+    }
+
+    private double windowSum(int top, int bottom, int left, int right) {
+        return sat[bottom + right] - sat[top + right] - sat[bottom + left] + sat[top + left];
+    }
+}
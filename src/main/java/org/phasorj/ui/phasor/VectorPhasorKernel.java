@@ -0,0 +1,61 @@
+package org.phasorj.ui.phasor;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PhasorKernel} using the (incubating) Vector API. Only instantiate through
+ * {@link PhasorKernel#best()}, which checks that the module is present and that vectors hold
+ * more than one double, see {@link #lanes()}.
+ */
+final class VectorPhasorKernel implements PhasorKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * @return the number of doubles in a vector; with one, this kernel is slower than the scalar
+     * one
+     */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void accumulate(double[] decay, double[] cosTable, double[] sinTable, double[] sums) {
+        int n = decay.length;
+        int upper = SPECIES.loopBound(n);
+
+        DoubleVector dcV = DoubleVector.zero(SPECIES);
+        DoubleVector reV = DoubleVector.zero(SPECIES);
+        DoubleVector imV = DoubleVector.zero(SPECIES);
+        int t = 0;
+        for (; t < upper; t += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, decay, t);
+            dcV = dcV.add(v);
+            reV = v.fma(DoubleVector.fromArray(SPECIES, cosTable, t), reV);
+            imV = v.fma(DoubleVector.fromArray(SPECIES, sinTable, t), imV);
+        }
+
+        // reduce lanes in a fixed order, reduceLanes(ADD) does not guarantee one
+        double dc = 0, re = 0, im = 0;
+        for (int l = 0; l < SPECIES.length(); l++) {
+            dc += dcV.lane(l);
+            re += reV.lane(l);
+            im += imV.lane(l);
+        }
+        for (; t < n; t++) {
+            double v = decay[t];
+            dc += v;
+            re += v * cosTable[t];
+            im += v * sinTable[t];
+        }
+        sums[0] = dc;
+        sums[1] = re;
+        sums[2] = im;
+    }
+
+    @Override
+    public String toString() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+}
@@ -0,0 +1,105 @@
+package org.phasorj.ui.phasor;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Checks that every stage that splits rows over a {@link ComputePool} gives bit-identical results
+ * for any thread count, comparing one thread with enough threads to split the rows into chunks
+ * of one or two rows.
+ */
+public class ComputePoolTest {
+
+    private static final int WIDTH = 67, HEIGHT = 53, BINS = 32;
+    private static final int[] HARMONICS = {1, 2};
+    private static final int[] THREADS = {2, 7, 16};
+
+    @Test
+    public void testPhasorTransform() {
+        ArrayImg<UnsignedShortType, ShortArray> decays = ArrayImgs.unsignedShorts(WIDTH, HEIGHT, BINS);
+        Random random = new Random(1);
+        Cursor<UnsignedShortType> c = decays.cursor();
+        while (c.hasNext()) {
+            c.next().set(random.nextInt(1000));
+        }
+        PhasorTransform transform = new PhasorTransform(BINS, HARMONICS);
+        DecayCube cube = DecayCube.of(decays, 0, 1, 2);
+
+        float[] inPlace = transform.transform(cube, new ComputePool(1)).update(null).getCurrentStorageArray();
+        float[] view = transform.transform(Views.interval(decays, decays), new ComputePool(1))
+                .update(null).getCurrentStorageArray();
+        float[] tiled = new float[inPlace.length];
+        transform.transformTiled(decays, new int[]{16, 8, 8}, tiled, 0, 64 * 1024, () -> {}, new ComputePool(1));
+        for (int threads : THREADS) {
+            ComputePool pool = new ComputePool(threads);
+            assertTrue(Arrays.equals(inPlace, transform.transform(cube, pool).update(null).getCurrentStorageArray()));
+            assertTrue(Arrays.equals(view, transform.transform(Views.interval(decays, decays), pool)
+                    .update(null).getCurrentStorageArray()));
+            float[] out = new float[tiled.length];
+            transform.transformTiled(decays, new int[]{16, 8, 8}, out, 0, 64 * 1024, () -> {}, pool);
+            assertTrue(Arrays.equals(tiled, out));
+        }
+    }
+
+    @Test
+    public void testSpatialBinning() {
+        float[] phasor = phasor();
+        int plane = WIDTH * HEIGHT;
+        for (int radius : new int[]{1, 3}) {
+            float[] expected = new float[2 * plane];
+            SpatialBinning.apply(phasor, 0, plane, 2 * plane, expected, 0, plane,
+                    WIDTH, HEIGHT, radius, new ComputePool(1));
+            for (int threads : THREADS) {
+                ComputePool pool = new ComputePool(threads);
+                float[] out = new float[2 * plane];
+                new SpatialBinning(phasor, 0, plane, 2 * plane, WIDTH, HEIGHT, pool)
+                        .apply(out, 0, plane, radius, pool);
+                assertTrue(Arrays.equals(expected, out));
+            }
+        }
+    }
+
+    @Test
+    public void testMedianFilter() {
+        float[] phasor = phasor();
+        int plane = WIDTH * HEIGHT;
+        for (int size : new int[]{3, 7}) {
+            for (int repeat : new int[]{1, 2, 3}) {
+                float[] expected = new float[plane];
+                MedianFilter.apply(phasor, plane, expected, 0, WIDTH, HEIGHT, size, repeat, new ComputePool(1));
+                for (int threads : THREADS) {
+                    float[] out = new float[plane];
+                    MedianFilter.apply(phasor, plane, out, 0, WIDTH, HEIGHT, size, repeat, new ComputePool(threads));
+                    assertTrue(Arrays.equals(expected, out));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return mean, G and S planes of random pixels, some of them NaN like pixels without signal
+     */
+    private static float[] phasor() {
+        int plane = WIDTH * HEIGHT;
+        float[] phasor = new float[3 * plane];
+        Random random = new Random(2);
+        for (int i = 0; i < plane; i++) {
+            boolean empty = random.nextInt(20) == 0;
+            phasor[i] = empty ? Float.NaN : 1 + random.nextInt(500);
+            phasor[plane + i] = empty ? Float.NaN : random.nextFloat();
+            phasor[2 * plane + i] = empty ? Float.NaN : 0.5f * random.nextFloat();
+        }
+        return phasor;
+    }
+}
@@ -0,0 +1,82 @@
+package org.phasorj.ui.phasor;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Microbenchmark of the scalar and Vector API phasor kernels for 64-, 256- and 1024-bin decays.
+ * <p>
+ * Run with {@code --add-modules jdk.incubator.vector}, otherwise only the scalar kernel is
+ * available.
+ * </p>
+ */
+public class PhasorKernelBenchmark {
+
+    private static final int[] BIN_COUNTS = {64, 256, 1024};
+
+    /** Decays processed per measurement, roughly a 512 x 512 image */
+    private static final int PIXELS = 512 * 512;
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    // keeps the JIT from dropping the work
+    private static double sink;
+
+    public static void main(String[] args) {
+        PhasorKernel scalar = PhasorKernel.scalar();
+        PhasorKernel best = PhasorKernel.best();
+        if (best == scalar) {
+            System.out.println("Vector API not available, start the JVM with --add-modules jdk.incubator.vector");
+        }
+
+        System.out.printf("%8s %14s %14s %8s%n", "bins", scalar + " ns/px", "best ns/px", "speedup");
+        for (int nBins : BIN_COUNTS) {
+            double[] cos = new double[nBins];
+            double[] sin = new double[nBins];
+            for (int t = 0; t < nBins; t++) {
+                double phi = 2 * Math.PI * t / nBins;
+                cos[t] = Math.cos(phi);
+                sin[t] = Math.sin(phi);
+            }
+            double[] decay = new double[nBins];
+            Random random = new Random(42);
+            for (int t = 0; t < nBins; t++) {
+                decay[t] = 1000 * Math.exp(-t / (nBins / 8.0)) + random.nextInt(20);
+            }
+
+            double scalarNs = measure(scalar, decay, cos, sin);
+            double bestNs = measure(best, decay, cos, sin);
+            System.out.printf("%8d %14.2f %14.2f %7.2fx%n", nBins, scalarNs, bestNs,
+                    scalarNs / bestNs);
+        }
+        System.out.println("(best = " + best + ", checksum " + sink + ")");
+    }
+
+    /**
+     * @return the median time per decay in nanoseconds
+     */
+    private static double measure(PhasorKernel kernel, double[] decay, double[] cos, double[] sin) {
+        double[] sums = new double[3];
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            run(kernel, decay, cos, sin, sums);
+        }
+        double[] times = new double[ROUNDS];
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            run(kernel, decay, cos, sin, sums);
+            times[r] = (System.nanoTime() - start) / (double) PIXELS;
+        }
+        Arrays.sort(times);
+        return times[ROUNDS / 2];
+    }
+
+    private static void run(PhasorKernel kernel, double[] decay, double[] cos, double[] sin, double[] sums) {
+        double acc = 0;
+        for (int p = 0; p < PIXELS; p++) {
+            kernel.accumulate(decay, cos, sin, sums);
+            acc += sums[1];
+        }
+        sink += acc;
+    }
+}
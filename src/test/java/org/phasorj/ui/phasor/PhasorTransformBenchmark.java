@@ -0,0 +1,94 @@
+package org.phasorj.ui.phasor;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Throughput of the fused intensity and phasor pass in GB/s of decay data read, on a
+ * 256 x 256 x 256 decay cube. Covers float, 16-bit and 8-bit ArrayImg and PlanarImg data with
+ * the lifetime axis first or last, read in place through {@link DecayCube}, and the RandomAccess
+ * path that every other image takes. Every result is checked against the RandomAccess path.
+ * <p>
+ * Pass a thread count as the first argument, the default is all processors.
+ * </p>
+ */
+public class PhasorTransformBenchmark {
+
+    private static final int SIZE = 256;
+    private static final int[] HARMONICS = {1, 2};
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 7;
+
+    public static void main(String[] args) {
+        ComputePool pool = args.length > 0 ? new ComputePool(Integer.parseInt(args[0])) : new ComputePool();
+        PhasorTransform transform = new PhasorTransform(SIZE, HARMONICS);
+        System.out.println("threads: " + pool.getThreads() + ", kernel: " + transform.getKernel()
+                + ", harmonics: " + Arrays.toString(HARMONICS));
+
+        System.out.printf("%-12s %-10s %5s %10s %8s%n", "type", "layout", "axis", "ms", "GB/s");
+        run("float", 4, ArrayImgs.floats(SIZE, SIZE, SIZE), PlanarImgs.floats(SIZE, SIZE, SIZE),
+                transform, pool);
+        run("uint16", 2, ArrayImgs.unsignedShorts(SIZE, SIZE, SIZE),
+                PlanarImgs.unsignedShorts(SIZE, SIZE, SIZE), transform, pool);
+        run("uint8", 1, ArrayImgs.unsignedBytes(SIZE, SIZE, SIZE),
+                PlanarImgs.unsignedBytes(SIZE, SIZE, SIZE), transform, pool);
+    }
+
+    private static <T extends RealType<T>> void run(String type, int bytes, Img<T> array, Img<T> planar,
+                                                    PhasorTransform transform, ComputePool pool) {
+        fill(array);
+        fill(planar);
+        for (int tAxis : new int[]{2, 0}) {
+            // X, Y and lifetime on axes 0, 1 and 2, as the RandomAccess path expects
+            RandomAccessibleInterval<T> view = tAxis == 2 ? array : Views.moveAxis(array, 0, 2);
+            int xAxis = tAxis == 2 ? 0 : 1;
+            float[] expected = transform.transform(view, pool).update(null).getCurrentStorageArray();
+
+            measure(type, "ArrayImg", tAxis, bytes, expected, () -> transform.transform(
+                    DecayCube.of(array, xAxis, xAxis + 1, tAxis), pool).update(null).getCurrentStorageArray());
+            measure(type, "PlanarImg", tAxis, bytes, expected, () -> transform.transform(
+                    DecayCube.of(planar, xAxis, xAxis + 1, tAxis), pool).update(null).getCurrentStorageArray());
+            measure(type, "view", tAxis, bytes, expected, () -> transform.transform(
+                    Views.interval(view, view), pool).update(null).getCurrentStorageArray());
+        }
+    }
+
+    private interface Pass {
+        float[] run();
+    }
+
+    private static void measure(String type, String layout, int tAxis, int bytes, float[] expected, Pass pass) {
+        for (int r = 0; r < WARMUP_ROUNDS; r++) {
+            pass.run();
+        }
+        double[] times = new double[ROUNDS];
+        float[] result = null;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            result = pass.run();
+            times[r] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        double ms = times[ROUNDS / 2];
+        double gb = (double) SIZE * SIZE * SIZE * bytes / 1e9;
+        String check = Arrays.equals(result, expected) ? "" : "  MISMATCH";
+        System.out.printf("%-12s %-10s %5d %10.2f %8.2f%s%n", type, layout, tAxis, ms, gb / (ms / 1e3), check);
+    }
+
+    private static <T extends RealType<T>> void fill(Img<T> img) {
+        Random random = new Random(42);
+        Cursor<T> c = img.cursor();
+        while (c.hasNext()) {
+            c.next().setReal(random.nextInt(100));
+        }
+    }
+}
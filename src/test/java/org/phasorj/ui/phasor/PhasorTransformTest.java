@@ -0,0 +1,251 @@
+package org.phasorj.ui.phasor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link PhasorTransform} against phasorpy's {@code phasor_from_signal} on synthetic
+ * single- and bi-exponential decays, at harmonics 1 and 2, for every way decays are read.
+ * <p>
+ * For float decays the reference is the closed form of the discrete Fourier transform of sampled
+ * exponentials, which is what {@code phasor_from_signal} computes for them in exact arithmetic;
+ * it tends to {@link PhasorCalibration#lifetimePhasor} as the bins get finer. Integer decays are
+ * rounded, so their reference is the transform of the rounded samples, evaluated in double
+ * precision like numpy does.
+ * </p>
+ */
+public class PhasorTransformTest {
+
+    private static final int WIDTH = 7, HEIGHT = 5, BINS = 64;
+    private static final int[] HARMONICS = {1, 2};
+    // laser repetition frequency in MHz, the decays cover one period
+    private static final double FREQUENCY = 80;
+    private static final double PERIOD = 1e3 / FREQUENCY;
+
+    // the outputs are float, the sums are double
+    private static final double TOLERANCE = 1e-6;
+
+    @Test
+    public void testSingleExponentialFloat() {
+        checkFloat(false);
+    }
+
+    @Test
+    public void testBiExponentialFloat() {
+        checkFloat(true);
+    }
+
+    @Test
+    public void testUnsignedShort() {
+        checkRounded(ArrayImgs.unsignedShorts(WIDTH, HEIGHT, BINS), 2, 30000);
+        checkRounded(PlanarImgs.unsignedShorts(BINS, WIDTH, HEIGHT), 0, 30000);
+    }
+
+    @Test
+    public void testUnsignedByte() {
+        checkRounded(ArrayImgs.unsignedBytes(WIDTH, HEIGHT, BINS), 2, 200);
+        checkRounded(PlanarImgs.unsignedBytes(BINS, WIDTH, HEIGHT), 0, 200);
+    }
+
+    @Test
+    public void testRandomAccessFallback() {
+        // doubles are not read in place, so they take the RandomAccess path
+        Img<?> doubles = ArrayImgs.doubles(WIDTH, HEIGHT, BINS);
+        assertNull(DecayCube.of(doubles, 0, 1, 2));
+        checkRounded(ArrayImgs.doubles(WIDTH, HEIGHT, BINS), 2, 30000);
+    }
+
+    @Test
+    public void testSingleExponentialApproachesLifetimePhasor() {
+        // 4096 bins of 3 ps, far shorter than the lifetime
+        PhasorTransform transform = new PhasorTransform(4096, 1);
+        Img<FloatType> img = ArrayImgs.floats(1, 1, 4096);
+        double tau = 2.5;
+        fill(img, 2, (x, y, t) -> decay(1, tau, tau, t, 4096));
+        float[] out = transform.transform(DecayCube.of(img, 0, 1, 2), new ComputePool(1))
+                .update(null).getCurrentStorageArray();
+        double[] expected = PhasorCalibration.lifetimePhasor(FREQUENCY, tau);
+        assertEquals(expected[0], out[PhasorTransform.REAL], 1e-3);
+        assertEquals(expected[1], out[PhasorTransform.IMAG], 1e-3);
+    }
+
+    private void checkFloat(boolean bi) {
+        double[][] expected = new double[WIDTH * HEIGHT][];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                expected[y * WIDTH + x] = analytic(amplitude(x, y, bi), tau1(x), tau2(y), BINS);
+            }
+        }
+        Img<FloatType> array = ArrayImgs.floats(WIDTH, HEIGHT, BINS);
+        Img<FloatType> planar = PlanarImgs.floats(BINS, WIDTH, HEIGHT);
+        fill(array, 2, (x, y, t) -> decay(amplitude(x, y, bi), tau1(x), tau2(y), t, BINS));
+        fill(planar, 0, (x, y, t) -> decay(amplitude(x, y, bi), tau1(x), tau2(y), t, BINS));
+        for (PhasorKernel kernel : new PhasorKernel[]{PhasorKernel.scalar(), PhasorKernel.best()}) {
+            PhasorTransform transform = new PhasorTransform(BINS, HARMONICS, kernel);
+            check(transform, array, 2, expected);
+            check(transform, planar, 0, expected);
+        }
+    }
+
+    private <T extends RealType<T>> void checkRounded(Img<T> img, int tAxis, double scale) {
+        fill(img, tAxis, (x, y, t) -> Math.round(scale * decay(amplitude(x, y, true), tau1(x), tau2(y), t, BINS)));
+        RandomAccessibleInterval<T> view = xyt(img, tAxis);
+        double[][] expected = new double[WIDTH * HEIGHT][];
+        double[] decay = new double[BINS];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int t = 0; t < BINS; t++) {
+                    decay[t] = view.getAt(x, y, t).getRealDouble();
+                }
+                expected[y * WIDTH + x] = direct(decay);
+            }
+        }
+        for (PhasorKernel kernel : new PhasorKernel[]{PhasorKernel.scalar(), PhasorKernel.best()}) {
+            check(new PhasorTransform(BINS, HARMONICS, kernel), img, tAxis, expected);
+        }
+    }
+
+    /**
+     * Transforms the image in place through {@link DecayCube} when it can be, and always through
+     * the RandomAccess path, and compares both with the expected mean, G and S of every pixel.
+     */
+    private <T extends RealType<T>> void check(PhasorTransform transform, Img<T> img, int tAxis,
+                                               double[][] expected) {
+        ComputePool pool = new ComputePool(3);
+        int xAxis = tAxis == 0 ? 1 : 0;
+        DecayCube cube = DecayCube.of(img, xAxis, xAxis + 1, tAxis);
+        if (ArrayPlanes.of(img) != null) {
+            assertNotNull(cube);
+            compare(transform + " in place", transform.transform(cube, pool).update(null).getCurrentStorageArray(),
+                    expected);
+        }
+        compare(transform + " RandomAccess", transform.transform(xyt(img, tAxis), pool)
+                .update(null).getCurrentStorageArray(), expected);
+    }
+
+    private static void compare(String path, float[] out, double[][] expected) {
+        int plane = WIDTH * HEIGHT;
+        for (int i = 0; i < plane; i++) {
+            double[] e = expected[i];
+            assertEquals(path + " mean at " + i, 1, out[PhasorTransform.MEAN * plane + i] / e[0], TOLERANCE);
+            for (int h = 0; h < HARMONICS.length; h++) {
+                assertEquals(path + " G" + HARMONICS[h] + " at " + i, e[1 + 2 * h],
+                        out[PhasorTransform.realChannel(h) * plane + i], TOLERANCE);
+                assertEquals(path + " S" + HARMONICS[h] + " at " + i, e[2 + 2 * h],
+                        out[PhasorTransform.imagChannel(h) * plane + i], TOLERANCE);
+            }
+        }
+    }
+
+    private static <T extends RealType<T>> RandomAccessibleInterval<T> xyt(Img<T> img, int tAxis) {
+        return tAxis == 2 ? img : Views.moveAxis(img, 0, 2);
+    }
+
+    private static double tau1(int x) {
+        return 0.4 + 0.1 * x;
+    }
+
+    private static double tau2(int y) {
+        return 3 + 0.5 * y;
+    }
+
+    /**
+     * @return the amplitude of the first component, the second one has the rest
+     */
+    private static double amplitude(int x, int y, boolean bi) {
+        return bi ? (x + y + 1.0) / (WIDTH + HEIGHT) : 1;
+    }
+
+    private static double decay(double a, double tau1, double tau2, int t, int bins) {
+        double time = t * PERIOD / bins;
+        return a * Math.exp(-time / tau1) + (1 - a) * Math.exp(-time / tau2);
+    }
+
+    /**
+     * Mean and G, S at every harmonic of the sampled decay, from the geometric sums
+     * sum(q^t) = (1 - q^n) / (1 - q) and sum(q^t w^t) = (1 - q^n) / (1 - q w) with
+     * q = exp(-dt / tau) and w = exp(2 pi i h / n).
+     */
+    private static double[] analytic(double a, double tau1, double tau2, int bins) {
+        double[] out = new double[1 + 2 * HARMONICS.length];
+        double[] amplitudes = {a, 1 - a};
+        double[] taus = {tau1, tau2};
+        double dc = 0;
+        for (int k = 0; k < 2; k++) {
+            double q = Math.exp(-PERIOD / bins / taus[k]);
+            dc += amplitudes[k] * (1 - Math.pow(q, bins)) / (1 - q);
+        }
+        out[0] = dc / bins;
+        for (int h = 0; h < HARMONICS.length; h++) {
+            double angle = 2 * Math.PI * HARMONICS[h] / bins;
+            double re = 0, im = 0;
+            for (int k = 0; k < 2; k++) {
+                double q = Math.exp(-PERIOD / bins / taus[k]);
+                double num = amplitudes[k] * (1 - Math.pow(q, bins));
+                // num / (1 - q w)
+                double dr = 1 - q * Math.cos(angle);
+                double di = -q * Math.sin(angle);
+                double d2 = dr * dr + di * di;
+                re += num * dr / d2;
+                im -= num * di / d2;
+            }
+            out[1 + 2 * h] = re / dc;
+            out[2 + 2 * h] = im / dc;
+        }
+        return out;
+    }
+
+    /**
+     * Mean and G, S at every harmonic by the definition of {@code phasor_from_signal}.
+     */
+    private static double[] direct(double[] decay) {
+        int n = decay.length;
+        double[] out = new double[1 + 2 * HARMONICS.length];
+        double dc = 0;
+        for (double v : decay) {
+            dc += v;
+        }
+        out[0] = dc / n;
+        for (int h = 0; h < HARMONICS.length; h++) {
+            double re = 0, im = 0;
+            for (int t = 0; t < n; t++) {
+                double phi = 2 * Math.PI * HARMONICS[h] * t / n;
+                re += decay[t] * Math.cos(phi);
+                im += decay[t] * Math.sin(phi);
+            }
+            out[1 + 2 * h] = re / dc;
+            out[2 + 2 * h] = im / dc;
+        }
+        return out;
+    }
+
+    private interface Sample {
+        double at(int x, int y, int t);
+    }
+
+    /**
+     * Fills an image whose lifetime axis is {@code tAxis}, 0 or 2, with X and Y on the others.
+     */
+    private static <T extends RealType<T>> void fill(Img<T> img, int tAxis, Sample sample) {
+        Cursor<T> c = img.localizingCursor();
+        while (c.hasNext()) {
+            T v = c.next();
+            int t = c.getIntPosition(tAxis);
+            int x = c.getIntPosition(tAxis == 0 ? 1 : 0);
+            int y = c.getIntPosition(tAxis == 0 ? 2 : 1);
+            v.setReal(sample.at(x, y, t));
+        }
+    }
+}